@@ -4,10 +4,15 @@
 
 package com.jojos.home.addresscomprehension;
 
+import com.jojos.home.addresscomprehension.download.AsyncDownloader;
+import com.jojos.home.addresscomprehension.download.DefaultDownloader;
+import com.jojos.home.addresscomprehension.download.HttpConnections;
+import com.jojos.home.addresscomprehension.download.RetryPolicy;
 import com.jojos.home.addresscomprehension.email.Email;
 import com.jojos.home.addresscomprehension.util.Util;
 import com.jojos.home.addresscomprehension.values.Company;
 import com.jojos.home.addresscomprehension.db.Database;
+import com.jojos.home.addresscomprehension.db.WriteBehindQueue;
 import com.jojos.home.addresscomprehension.exec.Engine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +29,7 @@ import java.util.HashSet;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Application's main entry point.
@@ -32,10 +38,14 @@ import java.util.Set;
  */
 public class Main {
 
+    // the default number of tasks running at the same time on virtual threads
+    private static final int DEFAULT_VIRTUAL_ENGINE_THREADS = 1000;
+
     private Logger log;
     private final String[] commandLineArguments;
     private final Properties properties= new Properties();
     private volatile Database database;
+    private volatile WriteBehindQueue writeBehindQueue;
     private volatile Engine engine;
 
     private Main(String[] commandLineArguments) {
@@ -63,7 +73,10 @@ public class Main {
 
         // instantiate the database
         String dbName = getProperty("db.name");
-        this.database = new Database(dbName);
+        this.database = new Database(dbName, properties);
+        this.writeBehindQueue = new WriteBehindQueue(database,
+                resolveIntProperty("db.write_queue.capacity", 1000),
+                resolveIntProperty("db.write_queue.max_groups", 100));
 
         // attach a shut down hook AFTER instantiating the database
         attachShutDownHook();
@@ -74,7 +87,8 @@ public class Main {
         // get the time to run. if not specified start at the time the tool started
         Optional<LocalTime> optionalLocalTime = resolveTime();
 
-        int engineThreads = resolveEngineThreads();
+        boolean virtualThreads = getOptionalBooleanProperty("engine.virtual_threads", false);
+        int engineThreads = resolveEngineThreads(virtualThreads);
 
         File downloadDirectory = new File(getOptionalProperty("download.directory").orElse("."));
         if (!downloadDirectory.exists()) {
@@ -94,14 +108,43 @@ public class Main {
 
         Email email = new Email(properties);
 
+        int maxPerHost = resolveIntProperty("download.max_per_host", 2);
+        // keep a connection per download in flight to a host and the TLS sessions until the next run at least
+        HttpConnections.configure(maxPerHost, (int) Math.min(Integer.MAX_VALUE, 2 * periodInSeconds));
+        DefaultDownloader defaultDownloader = DefaultDownloader.withTimeouts(
+                resolveIntProperty("download.connect_timeout_millis", DefaultDownloader.DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                resolveIntProperty("download.read_timeout_millis", DefaultDownloader.DEFAULT_READ_TIMEOUT_MILLIS));
+        if (getOptionalBooleanProperty("download.stream_to_file", false)) {
+            defaultDownloader = defaultDownloader.streamingToFile(
+                    resolveIntProperty("download.max_content_bytes", DefaultDownloader.DEFAULT_MAX_CONTENT_BYTES));
+        }
+        AsyncDownloader downloader = new AsyncDownloader(
+                defaultDownloader,
+                resolveIntProperty("download.max_in_flight", 64),
+                maxPerHost,
+                resolveIntProperty("download.max_queued", 1000),
+                new RetryPolicy(
+                        resolveIntProperty("download.retry.max_attempts", 4),
+                        resolveIntProperty("download.retry.initial_backoff_millis", 1000),
+                        resolveIntProperty("download.retry.max_backoff_millis", 60_000)),
+                resolveIntProperty("download.circuit_breaker.failure_threshold", 5),
+                TimeUnit.SECONDS.toMillis(resolveIntProperty("download.circuit_breaker.open_seconds", 300)));
+
         engine = new Engine(
                 companiesWithoutAddressCount,
-                database,
+                downloader,
+                writeBehindQueue,
                 email,
                 optionalLocalTime,
                 periodInSeconds,
                 downloadDirectory,
-                engineThreads);
+                engineThreads,
+                virtualThreads,
+                resolveIntProperty("run.spread_seconds", 0),
+                resolveIntProperty("run.jitter_seconds", 0),
+                resolveIntProperty("engine.cpu_threads", Runtime.getRuntime().availableProcessors()),
+                resolveIntProperty("engine.parse_queue.capacity", 100),
+                resolveIntProperty("engine.notify_queue.capacity", 100));
 
         // log the duration before the threads kick in
         log.info(String.format("Application took %.2f seconds to start",
@@ -112,27 +155,35 @@ public class Main {
     }
 
     /**
-     * Resolve the number of threads our {@link Engine} will use.
-     * Don't use more than our cpu cores.
+     * Resolve the number of threads our {@link Engine} will use to run the scheduled tasks.
+     * The tasks only start the downloads, the downloading and parsing runs on pools of their own,
+     * so the number is not limited by the cpu cores.
+     * If every task runs on a virtual thread of its own it's the number of tasks running at the same time.
+     * @param virtualThreads whether the tasks run on virtual threads
      * @return thread count to be used for the engine.
      */
-    private int resolveEngineThreads() {
-        int maxEngineThreads = Runtime.getRuntime().availableProcessors();
+    private int resolveEngineThreads(boolean virtualThreads) {
+        int maxEngineThreads = virtualThreads ? DEFAULT_VIRTUAL_ENGINE_THREADS : Runtime.getRuntime().availableProcessors();
         Optional<String> optionalEngineThreads = getOptionalProperty("engine.threads");
         if (optionalEngineThreads.isPresent()) {
             try {
-                int engineThreads = Integer.parseInt(optionalEngineThreads.get());
-                if (engineThreads < maxEngineThreads) {
-                    maxEngineThreads = engineThreads;
-                }
+                maxEngineThreads = Integer.parseInt(optionalEngineThreads.get());
             } catch (NumberFormatException e) {
                 log.warn("Unparsable property for engine.threads: {}", optionalEngineThreads.get());
             }
         }
-        log.info("Using {} threads for the download and parsing dispatchers", maxEngineThreads);
+        log.info("Using {} threads for the scheduled tasks", maxEngineThreads);
         return maxEngineThreads;
     }
 
+    private int resolveIntProperty(String key, int defaultValue) {
+        Optional<String> value = getOptionalProperty(key);
+        if (value.isPresent()) {
+            return Util.parseOptionalLong(value.get()).orElse((long) defaultValue).intValue();
+        }
+        return defaultValue;
+    }
+
     /**
      * Resolve the time from the properties file.
      * The format of the time can have one of the two formats:
@@ -281,13 +332,17 @@ public class Main {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                if (database != null) {
-                    // every piece of instructions that JVM should execute before going down should be defined here
-                    database.shutdown();
-                }
+                // every piece of instructions that JVM should execute before going down should be defined here
+                // stop producing first, then flush the pending writes before the database goes down
                 if (engine != null) {
                     engine.shutdown();
                 }
+                if (writeBehindQueue != null) {
+                    writeBehindQueue.stop(30);
+                }
+                if (database != null) {
+                    database.shutdown();
+                }
             }
         });
     }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe cache holding at most a fixed number of entries, evicting the least recently used one
+ * when full. Optionally entries expire a fixed time after they were put.
+ *
+ * Every entry removed because of size or age is handed to the eviction listener, so that
+ * anything derived from the cache (like the {@link CacheIndex}) can be kept consistent.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class BoundedCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final BiConsumer<K, V> evictionListener;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize the max number of entries
+     * @param ttlSeconds the seconds an entry lives after it's put, 0 or less for entries that never expire
+     * @param evictionListener called with every entry evicted
+     */
+    BoundedCache(int maxSize, long ttlSeconds, BiConsumer<K, V> evictionListener) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds > 0 ? TimeUnit.SECONDS.toNanos(ttlSeconds) : 0;
+        this.evictionListener = evictionListener;
+        // access order makes the iteration order the least recently used first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            evict(key, entry.value);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * @return the previous value of the key, if any and not expired
+     */
+    synchronized V put(K key, V value) {
+        Entry<V> previous = entries.put(key, new Entry<>(value, System.nanoTime()));
+        if (previous != null && isExpired(previous)) {
+            evict(key, previous.value);
+            previous = null;
+        }
+        evictEldestIfFull();
+        return previous == null ? null : previous.value;
+    }
+
+    /**
+     * Put the value only if there is no live entry for the key.
+     * @return true if the value was put
+     */
+    synchronized boolean putIfAbsent(K key, V value) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && !isExpired(entry)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    synchronized V remove(K key) {
+        Entry<V> previous = entries.remove(key);
+        return previous == null ? null : previous.value;
+    }
+
+    synchronized boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void evictEldestIfFull() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            iterator.remove();
+            evict(eldest.getKey(), eldest.getValue().value);
+        }
+    }
+
+    private void evict(K key, V value) {
+        evictions++;
+        evictionListener.accept(key, value);
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return ttlNanos > 0 && System.nanoTime() - entry.createdNanos > ttlNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BoundedCache{" +
+                "size=" + entries.size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long createdNanos;
+
+        private Entry(V value, long createdNanos) {
+            this.value = value;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
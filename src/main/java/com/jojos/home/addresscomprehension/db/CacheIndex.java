@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import com.jojos.home.addresscomprehension.values.Address;
+import com.jojos.home.addresscomprehension.values.Company;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keyed lookups over the companies and addresses cached by the {@link Database}.
+ *
+ * The index must be told about every change of the cache, passing the previous value (if any) that was mapped
+ * to the same id so that stale keys can be dropped, as well as about every entry evicted from the cache.
+ * Lookups are safe to run concurrently with the changes.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class CacheIndex {
+
+    // URL and name only, used to detect updates of the address count
+    private final Map<CompanyKey, Integer> companiesByUrlAndName = new ConcurrentHashMap<>();
+    // Company equality is defined over URL, name and address count
+    private final Map<Company, Integer> companiesByUrlNameAndAddressCount = new ConcurrentHashMap<>();
+    private final Map<String, Integer> addressesByValue = new ConcurrentHashMap<>();
+
+    void indexCompany(Integer id, Company previous, Company company) {
+        if (previous != null) {
+            unindexCompany(id, previous);
+        }
+        companiesByUrlAndName.put(CompanyKey.of(company), id);
+        companiesByUrlNameAndAddressCount.put(company, id);
+    }
+
+    void indexAddress(Integer id, Address previous, Address address) {
+        if (previous != null) {
+            unindexAddress(id, previous);
+        }
+        addressesByValue.put(address.getValue(), id);
+    }
+
+    void unindexCompany(Integer id, Company company) {
+        companiesByUrlAndName.remove(CompanyKey.of(company), id);
+        companiesByUrlNameAndAddressCount.remove(company, id);
+    }
+
+    void unindexAddress(Integer id, Address address) {
+        addressesByValue.remove(address.getValue(), id);
+    }
+
+    /**
+     * @param company the company to look for
+     * @return the id of the cached company with the same URL, name and address count
+     */
+    Optional<Integer> getCompanyId(Company company) {
+        return Optional.ofNullable(companiesByUrlNameAndAddressCount.get(company));
+    }
+
+    /**
+     * @param company the company to look for
+     * @return the id of the cached company with the same URL and name regardless of the address count
+     */
+    Optional<Integer> getCompanyIdByUrlAndName(Company company) {
+        return Optional.ofNullable(companiesByUrlAndName.get(CompanyKey.of(company)));
+    }
+
+    /**
+     * @param value the value of the address
+     * @return the id of the cached address having this value
+     */
+    Optional<Integer> getAddressId(String value) {
+        return Optional.ofNullable(addressesByValue.get(value));
+    }
+
+    private static final class CompanyKey {
+        private final String urlStr;
+        private final Optional<String> name;
+
+        private CompanyKey(String urlStr, Optional<String> name) {
+            this.urlStr = urlStr;
+            this.name = name;
+        }
+
+        private static CompanyKey of(Company company) {
+            return new CompanyKey(company.getUrlStr(), company.getName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CompanyKey that = (CompanyKey) o;
+
+            if (urlStr != null ? !urlStr.equals(that.urlStr) : that.urlStr != null) return false;
+            return !(name != null ? !name.equals(that.name) : that.name != null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = urlStr != null ? urlStr.hashCode() : 0;
+            result = 31 * result + (name != null ? name.hashCode() : 0);
+            return result;
+        }
+    }
+}
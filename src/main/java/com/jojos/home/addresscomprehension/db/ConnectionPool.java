@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A small fixed-size pool of read-only connections to the embedded database.
+ *
+ * A borrowed connection is used exclusively by the borrowing thread until it's given back by closing it,
+ * so each thread works on its own connection and statements. Borrowing blocks while all connections are in use.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class ConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final List<PooledConnection> connections = new ArrayList<>();
+    private final BlockingQueue<PooledConnection> idleConnections;
+
+    ConnectionPool(String connectionURL, int size) throws SQLException {
+        idleConnections = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            Connection connection = DriverManager.getConnection(connectionURL);
+            connection.setReadOnly(true);
+            PooledConnection pooledConnection = new PooledConnection(connection);
+            connections.add(pooledConnection);
+            idleConnections.add(pooledConnection);
+        }
+        log.info("Created {} read connections", size);
+    }
+
+    /**
+     * Borrow a connection. Use it in a try-with-resources block to give it back to the pool.
+     * @return an idle connection
+     * @throws SQLException if interrupted while waiting for a connection to become idle
+     */
+    PooledConnection borrow() throws SQLException {
+        try {
+            return idleConnections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /**
+     * Close all connections of the pool, whether they are in use or not.
+     */
+    void close() {
+        for (PooledConnection pooledConnection : connections) {
+            pooledConnection.statements.close();
+            try {
+                pooledConnection.connection.close();
+            } catch (SQLException e) {
+                log.error("Cannot close the connection", e);
+            }
+        }
+        idleConnections.clear();
+    }
+
+    final class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final StatementCache statements;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection);
+        }
+
+        StatementCache getStatements() {
+            return statements;
+        }
+
+        /**
+         * Give the connection back to the pool.
+         */
+        @Override
+        public void close() {
+            idleConnections.offer(this);
+        }
+    }
+}
@@ -5,6 +5,7 @@
 package com.jojos.home.addresscomprehension.db;
 
 import com.jojos.home.addresscomprehension.ApplicationException;
+import com.jojos.home.addresscomprehension.util.Util;
 import com.jojos.home.addresscomprehension.values.Address;
 import com.jojos.home.addresscomprehension.values.Company;
 import org.slf4j.Logger;
@@ -21,12 +22,20 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * All the database related operations go here
@@ -36,92 +45,287 @@ import java.util.Optional;
 public class Database {
     private static final Logger log = LoggerFactory.getLogger(Database.class);
     private static final String DERBY_URL_PREFIX = "jdbc:derby:";
+    private static final int DEFAULT_READ_CONNECTIONS = 4;
+    private static final int DEFAULT_CACHE_MAX_SIZE = 10_000;
+    private static final String CREATE_ADDRESSES_INDEX = "CREATE INDEX ADDRESSES_ADDRESS_IDX ON ADDRESSES (ADDRESS)";
+    private static final String CREATE_COMPANIES_INDEX = "CREATE INDEX COMPANIES_URL_IDX ON COMPANIES (URL)";
     private final String driver = "org.apache.derby.jdbc.EmbeddedDriver";
     private final String dbName;
+    // the only connection used for writing. All writes are serialized on the writeLock
     private final Connection dbConnection;
+    private final StatementCache writeStatements;
+    private final Object writeLock = new Object();
+    // connections used for reading concurrently from different threads
+    private final ConnectionPool readPool;
     private final String dbShutDownURL;
 
-    private final Map<Integer, Company> cachedCompanies = new HashMap<>();
-    private final Map<Integer, Address> cachedAddresses = new HashMap<>();
+    // bounded caches. A miss falls back to an indexed lookup in the database
+    private final BoundedCache<Integer, Company> cachedCompanies;
+    private final BoundedCache<Integer, Address> cachedAddresses;
+    // keeps the lookups over the cached values at O(1). Every change of the caches must go through it
+    private final CacheIndex cacheIndex = new CacheIndex();
+    // address values known not to be stored, saves a database probe for addresses we have already looked for
+    private final BoundedCache<String, Boolean> absentAddresses;
+    // bumped holding the writeLock every time addresses are committed. A lookup that missed only marks the address
+    // absent if no addresses were committed since it started, otherwise it might have missed one of them
+    private volatile long addressWriteGeneration;
+    private final WarmUp warmUp;
+    // the URLs of the companies already warmed up in the LAZY mode
+    private final Set<String> warmedUpUrls = ConcurrentHashMap.newKeySet();
+
+    /**
+     * When to fill the caches with what's already stored
+     */
+    private enum WarmUp {
+        // in the constructor, before the database is handed out
+        EAGER,
+        // in a background thread started by the constructor
+        BACKGROUND,
+        // per company, the first time one of its addresses is inserted
+        LAZY
+    }
 
     public Database(String dbName) throws SQLException, MalformedURLException, ApplicationException {
+        this(dbName, new Properties());
+    }
+
+    /**
+     * @param dbName the name of the database
+     * @param properties the application properties. {@code db.read_connections} defines the number of connections
+     *                   used for concurrent reads, default is {@value #DEFAULT_READ_CONNECTIONS}.
+     *                   {@code db.cache.max_size} defines the max number of companies and addresses cached each,
+     *                   default is {@value #DEFAULT_CACHE_MAX_SIZE}. {@code db.cache.ttl_seconds} the seconds
+     *                   a cached entry lives, default is 0 for entries that never expire.
+     *                   {@code db.cache.warmup} one of eager (default), background or lazy defines when the caches
+     *                   are filled with what's already stored.
+     */
+    public Database(String dbName, Properties properties)
+            throws SQLException, MalformedURLException, ApplicationException {
         this.dbName = dbName;
+        int cacheMaxSize = getIntProperty(properties, "db.cache.max_size", DEFAULT_CACHE_MAX_SIZE);
+        long cacheTtlSeconds = getIntProperty(properties, "db.cache.ttl_seconds", 0);
+        cachedCompanies = new BoundedCache<>(cacheMaxSize, cacheTtlSeconds, cacheIndex::unindexCompany);
+        cachedAddresses = new BoundedCache<>(cacheMaxSize, cacheTtlSeconds, cacheIndex::unindexAddress);
+        absentAddresses = new BoundedCache<>(cacheMaxSize, cacheTtlSeconds, (value, absent) -> {});
+        warmUp = resolveWarmUp(properties.getProperty("db.cache.warmup"));
         String connectionURL = DERBY_URL_PREFIX + dbName + ";create=true";
 
         // jdbc4 states that we no longer need to call Class.forName() to register the driver
         dbConnection = DriverManager.getConnection(connectionURL);
+        writeStatements = new StatementCache(dbConnection);
         dbShutDownURL = DERBY_URL_PREFIX + ";shutdown=true";
         log.info("Connected to database {}", dbName);
 
         // first create the tables
         createTablesIfNotExist();
 
-        // then cache the companies. It's ok to do that for now.
-        // If that becomes a problem over time rethink the implementation.
-        populateCompanies();
-        populateAddresses();
+        readPool = new ConnectionPool(DERBY_URL_PREFIX + dbName,
+                getIntProperty(properties, "db.read_connections", DEFAULT_READ_CONNECTIONS));
+
+        // then cache the companies and their latest addresses
+        switch (warmUp) {
+            case EAGER:
+                populateCompanies();
+                populateAddresses();
+                break;
+            case BACKGROUND:
+                Thread warmUpThread = new Thread(() -> {
+                    try {
+                        populateCompanies();
+                        populateAddresses();
+                        log.info("Cache warm-up done. {}", getCacheStatistics());
+                    } catch (SQLException | ApplicationException | MalformedURLException e) {
+                        log.error("Cache warm-up failed", e);
+                    }
+                }, "db-warmup");
+                warmUpThread.setDaemon(true);
+                warmUpThread.start();
+                break;
+            case LAZY:
+                // see warmUpIfNeeded
+                break;
+        }
+    }
+
+    private static WarmUp resolveWarmUp(String warmUp) {
+        if (warmUp != null) {
+            try {
+                return WarmUp.valueOf(warmUp.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown value for db.cache.warmup: {}", warmUp);
+            }
+        }
+        return WarmUp.EAGER;
     }
 
     /**
-     * Compare just the URL and name of the cachedCompanies against the passed argument
+     * Compare just the URL and name of the stored companies against the passed argument
      * @param company the object to compare against
      * @return true if there is at least on entry with the same URL and name as the passed argument, false otherwise.
      */
-    private boolean cachedCompaniesContainCompanyWithoutAddressCount(Company company) {
-        for (HashMap.Entry<Integer, Company> entry : cachedCompanies.entrySet()) {
-            if (entry.getValue().getUrlStr().equals(company.getUrlStr()) &&
-                    entry.getValue().getName().equals(company.getName())) {
+    private boolean storedCompaniesContainCompanyWithoutAddressCount(Company company, StatementCache statements)
+            throws SQLException, MalformedURLException {
+        if (getCachedCompanyByUrlAndName(company).isPresent()) {
+            return true;
+        }
+        for (Company retrieved : retrieveCompaniesWithUrl(company.getUrlStr(), statements).values()) {
+            if (retrieved.getName().equals(company.getName())) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * The index is only a hint as the entry it points to could have been evicted in the meantime.
+     * @return the id of the cached company equal to the passed argument
+     */
+    private Optional<Integer> getCachedCompanyId(Company company) {
+        Optional<Integer> id = cacheIndex.getCompanyId(company);
+        return id.isPresent() && company.equals(cachedCompanies.get(id.get())) ? id : Optional.empty();
+    }
+
+    /**
+     * @return the id and the cached company with the same URL and name as the passed argument
+     */
+    private Optional<Map.Entry<Integer, Company>> getCachedCompanyByUrlAndName(Company company) {
+        Optional<Integer> id = cacheIndex.getCompanyIdByUrlAndName(company);
+        Company cached = id.isPresent() ? cachedCompanies.get(id.get()) : null;
+        if (cached != null && cached.getUrlStr().equals(company.getUrlStr()) && cached.getName().equals(company.getName())) {
+            return Optional.of(new AbstractMap.SimpleImmutableEntry<>(id.get(), cached));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the id of the cached address with the passed value
+     */
+    private Optional<Integer> getCachedAddressId(String value) {
+        Optional<Integer> id = cacheIndex.getAddressId(value);
+        Address cached = id.isPresent() ? cachedAddresses.get(id.get()) : null;
+        return cached != null && cached.getValue().equals(value) ? id : Optional.empty();
+    }
+
     /**
      * Insert a collection of companies into the database.
      * If the company in question if found with a different AddressCount perform an update operation instead.
+     * All inserts and updates are sent as JDBC batches within a single transaction.
      * @param companies a Collection of presumably unique companies.
      * @throws SQLException if something went wrong and the database could not perform the insert/update operation.
      */
     public void insertCompanies(Collection<Company> companies) throws SQLException, MalformedURLException {
+        synchronized (writeLock) {
+            Map<Integer, Company> written;
+            dbConnection.setAutoCommit(false);
+            try {
+                written = writeCompanies(companies);
+                dbConnection.commit();
+            } catch (Exception e) {
+                // turning auto-commit back on would otherwise commit whatever was written so far
+                rollback();
+                throw e;
+            } finally {
+                dbConnection.setAutoCommit(true);
+            }
+            // only cache what has been committed
+            written.forEach(this::cacheCompany);
+        }
+    }
+
+    /**
+     * Batch insert/update the companies without committing.
+     * @param companies a Collection of presumably unique companies.
+     * @return the companies written mapped by their id
+     */
+    private Map<Integer, Company> writeCompanies(Collection<Company> companies) throws SQLException, MalformedURLException {
+        // companies with the same URL and name in the same collection are collapsed to the last one
+        Map<List<Object>, Company> toInsert = new LinkedHashMap<>();
+        Map<Integer, Company> toUpdate = new LinkedHashMap<>();
         for (Company company : companies) {
-            if (!cachedCompaniesContainCompanyWithoutAddressCount(company)) {
-                PreparedStatement statement = dbConnection.prepareStatement(
-                        "INSERT INTO Companies (URL, NAME, ADDRESS_COUNT) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
-                statement.closeOnCompletion();
+            if (!storedCompaniesContainCompanyWithoutAddressCount(company, writeStatements)) {
+                toInsert.put(Arrays.asList(company.getUrlStr(), company.getName()), company);
+            } else {
+                Optional<Integer> id = getIdForCompanyWithDifferentAddressCount(company, writeStatements);
+                if (id.isPresent()) { // this is an indication to update
+                    toUpdate.put(id.get(), company);
+                }
+            }
+        }
+
+        Map<Integer, Company> written = new LinkedHashMap<>();
+        if (!toInsert.isEmpty()) {
+            PreparedStatement statement = writeStatements.prepare(
+                    "INSERT INTO Companies (URL, NAME, ADDRESS_COUNT) VALUES (?, ?, ?)");
+            // a failed batch could have left entries behind
+            statement.clearBatch();
+            for (Company company : toInsert.values()) {
                 statement.setString(1, company.getUrlStr());
                 statement.setString(2, company.getName().orElse(""));
                 statement.setInt(3, company.getAddressCount());
-                statement.execute();
-
+                statement.addBatch();
                 log.info("Inserting {}", company.toString());
-                // fetch the auto-increment value we just created
-                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        int id = generatedKeys.getInt(1);
-                        cacheCompany(id, company);
-                    } else {
-                        throw new SQLException("Expected generated keys after inserting a company but got none");
-                    }
-                }
-            } else {
-                Optional<Integer> id = getIdForCompanyWithDifferentAddressCount(company);
-                if (id.isPresent()) { // this is an indication to update
-                    PreparedStatement statement = dbConnection.prepareStatement(
-                            "UPDATE Companies SET URL=?, NAME=?, ADDRESS_COUNT=? WHERE ID=?");
-                    statement.closeOnCompletion();
-                    statement.setString(1, company.getUrlStr());
-                    statement.setString(2, company.getName().orElse(""));
-                    statement.setInt(3, company.getAddressCount());
-                    statement.setInt(4, id.get());
-                    statement.execute();
-
-                    log.info("Updating  {}", company.toString());
-
-                    cacheCompany(id.get(), company);
-                }
             }
+            List<Integer> ids = executeInsertBatch(statement, "COMPANIES", toInsert.size());
+            Iterator<Integer> idIterator = ids.iterator();
+            toInsert.values().forEach(company -> written.put(idIterator.next(), company));
+        }
+
+        if (!toUpdate.isEmpty()) {
+            PreparedStatement statement = writeStatements.prepare(
+                    "UPDATE Companies SET URL=?, NAME=?, ADDRESS_COUNT=? WHERE ID=?");
+            statement.clearBatch();
+            for (Map.Entry<Integer, Company> entry : toUpdate.entrySet()) {
+                Company company = entry.getValue();
+                statement.setString(1, company.getUrlStr());
+                statement.setString(2, company.getName().orElse(""));
+                statement.setInt(3, company.getAddressCount());
+                statement.setInt(4, entry.getKey());
+                statement.addBatch();
+                log.info("Updating  {}", company.toString());
+            }
+            statement.executeBatch();
+            written.putAll(toUpdate);
         }
+        return written;
+    }
+
+    /**
+     * Execute a batch of single-row inserts into a table and fetch the identity values generated for them.
+     * Derby doesn't return generated keys for batches, but since all writes go through the same synchronized
+     * connection inside a transaction the rows created are the ones with an ID bigger than the max ID before
+     * the batch, in the order they were added to it.
+     * @param statement the insert statement holding the batch
+     * @param table the table we insert into
+     * @param expectedRows the number of rows added to the batch
+     * @return the generated IDs in the order the rows were added to the batch
+     * @throws SQLException if the batch failed or the IDs generated don't match the rows inserted
+     */
+    private List<Integer> executeInsertBatch(PreparedStatement statement, String table, int expectedRows)
+            throws SQLException {
+        int maxId = 0;
+        PreparedStatement maxIdStatement = writeStatements.prepare("SELECT MAX(ID) FROM " + table);
+        try (ResultSet rs = maxIdStatement.executeQuery()) {
+            if (rs.next()) {
+                maxId = rs.getInt(1);
+            }
+        }
+
+        statement.executeBatch();
+
+        List<Integer> ids = new ArrayList<>(expectedRows);
+        PreparedStatement idsStatement = writeStatements.prepare(
+                "SELECT ID FROM " + table + " WHERE ID > ? ORDER BY ID");
+        idsStatement.setInt(1, maxId);
+        try (ResultSet rs = idsStatement.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        if (ids.size() != expectedRows) {
+            throw new SQLException(String.format("Expected %d generated keys after inserting into %s but got %d",
+                    expectedRows, table, ids.size()));
+        }
+        return ids;
     }
 
     /**
@@ -130,12 +334,17 @@ public class Database {
      * @throws SQLException if retrieval went wrong
      */
     public Map<Integer, Company> retrieveCompanies() throws SQLException, MalformedURLException {
-        Statement statement = dbConnection.createStatement();
-        statement.closeOnCompletion();
+        try (ConnectionPool.PooledConnection connection = readPool.borrow()) {
+            return retrieveCompanies(connection.getStatements());
+        }
+    }
+
+    private Map<Integer, Company> retrieveCompanies(StatementCache statements) throws SQLException, MalformedURLException {
+        PreparedStatement statement = statements.prepare("SELECT ID, URL, NAME, ADDRESS_COUNT FROM COMPANIES");
 
         // it's OK to preserve order for now
         Map<Integer, Company> companies = new LinkedHashMap<>();
-        try (ResultSet rs = statement.executeQuery("SELECT ID, URL, NAME, ADDRESS_COUNT FROM COMPANIES")) {
+        try (ResultSet rs = statement.executeQuery()) {
 
             while (rs.next()) {
                 int id = rs.getInt("ID");
@@ -150,103 +359,174 @@ public class Database {
     }
 
     /**
-     * Get a singe company based on ID.
+     * Point query for the companies with the given URL using the COMPANIES_URL_IDX index.
+     * @param url the URL of the companies
      * @return a map of IDs-Company
      * @throws SQLException if retrieval went wrong
      */
-    public Optional<Company> retrieveCompany(int id) throws SQLException, MalformedURLException {
-        PreparedStatement statement = dbConnection.prepareStatement(
-                "SELECT ID, URL, NAME, ADDRESS_COUNT FROM COMPANIES WHERE ID = ?");
-        statement.setInt(1, id);
-        statement.closeOnCompletion();
+    private Map<Integer, Company> retrieveCompaniesWithUrl(String url, StatementCache statements)
+            throws SQLException, MalformedURLException {
+        PreparedStatement statement = statements.prepare(
+                "SELECT ID, URL, NAME, ADDRESS_COUNT FROM COMPANIES WHERE URL = ?");
+        statement.setString(1, url);
 
-        Optional<Company> company = Optional.empty();
+        Map<Integer, Company> companies = new LinkedHashMap<>();
         try (ResultSet rs = statement.executeQuery()) {
             while (rs.next()) {
-                String url = rs.getString("URL");
+                int id = rs.getInt("ID");
                 String name = rs.getString("NAME");
                 int addressCount = rs.getInt("ADDRESS_COUNT");
                 Optional<String> optionalName = "".equals(name) ? Optional.empty() : Optional.of(name);
-                company = Optional.of(new Company(url, optionalName, addressCount));
+                companies.put(id, new Company(url, optionalName, addressCount));
+            }
+        }
+        return companies;
+    }
+
+    /**
+     * Get a singe company based on ID.
+     * @return a map of IDs-Company
+     * @throws SQLException if retrieval went wrong
+     */
+    public Optional<Company> retrieveCompany(int id) throws SQLException, MalformedURLException {
+        try (ConnectionPool.PooledConnection connection = readPool.borrow()) {
+            PreparedStatement statement = connection.getStatements().prepare(
+                    "SELECT ID, URL, NAME, ADDRESS_COUNT FROM COMPANIES WHERE ID = ?");
+            statement.setInt(1, id);
+
+            Optional<Company> company = Optional.empty();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String url = rs.getString("URL");
+                    String name = rs.getString("NAME");
+                    int addressCount = rs.getInt("ADDRESS_COUNT");
+                    Optional<String> optionalName = "".equals(name) ? Optional.empty() : Optional.of(name);
+                    company = Optional.of(new Company(url, optionalName, addressCount));
+                }
             }
+            return company;
         }
-        return company;
     }
 
     /**
      * Retrieve all addresses stored in database.
+     * The companies are fetched within the same query.
      * @return a map of IDs-Address
      * @throws SQLException if retrieval went wrong
      */
     public Map<Integer, Address> retrieveAddresses() throws SQLException, ApplicationException, MalformedURLException {
-        Statement statement = dbConnection.createStatement();
-        statement.closeOnCompletion();
+        try (ConnectionPool.PooledConnection connection = readPool.borrow()) {
+            return retrieveAddresses(connection.getStatements());
+        }
+    }
+
+    private Map<Integer, Address> retrieveAddresses(StatementCache statements)
+            throws SQLException, ApplicationException, MalformedURLException {
+        PreparedStatement statement = statements.prepare(
+                "SELECT A.ID, A.ADDRESS, A.IMPORT_TIMESTAMP, A.COMPANY_ID, A.ORDINAL, " +
+                "C.URL, C.NAME, C.ADDRESS_COUNT " +
+                "FROM ADDRESSES A INNER JOIN COMPANIES C ON C.ID=A.COMPANY_ID");
 
         // it's OK to preserve order for now
         Map<Integer, Address> addresses = new LinkedHashMap<>();
-        try (ResultSet rs = statement.executeQuery("SELECT ID, ADDRESS, IMPORT_TIMESTAMP, COMPANY_ID, ORDINAL FROM ADDRESSES")) {
-            while (rs.next()) {
-                int id = rs.getInt("ID");
-                String address = rs.getString("ADDRESS");
-                LocalDateTime dateTime = rs.getTimestamp("IMPORT_TIMESTAMP").toLocalDateTime();
-                int companyId = rs.getInt("COMPANY_ID");
-                int ordinal = rs.getInt("ORDINAL");
-                Optional<Company> company = retrieveCompany(companyId);
-                // extra validation step which normally shouldn't be required
-                if (company.isPresent()) {
-                    if (ordinal > company.get().getAddressCount()) {
-                        String errorMsg = "Can't  possibly define an address ordinal with a value bigger than it's company's address_count";
-                        log.error(errorMsg);
-                        throw new ApplicationException(errorMsg);
-                    }
-                    addresses.put(id, new Address(address, dateTime, company.get(), ordinal));
-                }
-            }
+        try (ResultSet rs = statement.executeQuery()) {
+            readAddresses(rs, addresses);
         }
         return addresses;
     }
 
     /**
      * Retrieve the latest addresses for all companies
+     * The companies are fetched within the same query.
      * @return a list of the latest addresses for each company
      */
     public Map<Integer, Address> retrieveLatestAddresses()
             throws SQLException,ApplicationException, MalformedURLException {
+        try (ConnectionPool.PooledConnection connection = readPool.borrow()) {
+            return retrieveLatestAddresses(connection.getStatements());
+        }
+    }
+
+    private Map<Integer, Address> retrieveLatestAddresses(StatementCache statements)
+            throws SQLException,ApplicationException, MalformedURLException {
         // preserve the retrieve order
         Map<Integer, Address> addresses = new LinkedHashMap<>();
 
-        Statement statement = dbConnection.createStatement();
-        statement.closeOnCompletion();
 //        try (ResultSet rs = statement.executeQuery("select ID, ADDRESS, IMPORT_TIMESTAMP, COMPANY_ID, ORDINAL " +
 //                "from ADDRESSES where ID IN " +
 //                "(select MAX(ID) AS MAX_ID from ADDRESSES GROUP BY COMPANY_ID, ORDINAL ORDER BY COMPANY_ID, ORDINAL)")) {
-        try (ResultSet rs = statement.executeQuery("select A.ID, A.ADDRESS, A.IMPORT_TIMESTAMP, A.COMPANY_ID, A.ORDINAL " +
+        PreparedStatement statement = statements.prepare(
+                "select A.ID, A.ADDRESS, A.IMPORT_TIMESTAMP, A.COMPANY_ID, A.ORDINAL, " +
+                "C.URL, C.NAME, C.ADDRESS_COUNT " +
                 "from ADDRESSES A INNER JOIN COMPANIES C ON C.ID=A.COMPANY_ID " +
                 "where A.ORDINAL<=C.ADDRESS_COUNT AND A.ID IN " +
                 "(select MAX(ID) AS MAX_ID from ADDRESSES GROUP BY COMPANY_ID, ORDINAL ORDER BY COMPANY_ID, ORDINAL) " +
-                "ORDER BY A.COMPANY_ID, A.ORDINAL")) {
-            while (rs.next()) {
-                int id = rs.getInt("ID");
-                String address = rs.getString("ADDRESS");
-                LocalDateTime dateTime = rs.getTimestamp("IMPORT_TIMESTAMP").toLocalDateTime();
-                int companyId = rs.getInt("COMPANY_ID");
-                int ordinal = rs.getInt("ORDINAL");
-                Optional<Company> company = retrieveCompany(companyId);
-                // extra validation step which normally shouldn't be required
-                if (company.isPresent()) {
-                    if (ordinal > company.get().getAddressCount()) {
-                        String errorMsg = String.format("Can't possibly define an address ordinal " +
-                                "with a value bigger than it's company's address_count. %s -- %s", address, company);
-                        log.error(errorMsg);
-                        throw new ApplicationException(errorMsg);
-                    }
-                    addresses.put(id, new Address(address, dateTime, company.get(), ordinal));
-                }
-            }
+                "ORDER BY A.COMPANY_ID, A.ORDINAL");
+        try (ResultSet rs = statement.executeQuery()) {
+            readAddresses(rs, addresses);
         }
         return addresses;
     }
 
+    /**
+     * Retrieve the latest addresses of a single company
+     * @param companyId the id of the company
+     * @return a list of the latest addresses of the company
+     */
+    private Map<Integer, Address> retrieveLatestAddresses(int companyId, StatementCache statements)
+            throws SQLException,ApplicationException, MalformedURLException {
+        Map<Integer, Address> addresses = new LinkedHashMap<>();
+
+        PreparedStatement statement = statements.prepare(
+                "select A.ID, A.ADDRESS, A.IMPORT_TIMESTAMP, A.COMPANY_ID, A.ORDINAL, " +
+                "C.URL, C.NAME, C.ADDRESS_COUNT " +
+                "from ADDRESSES A INNER JOIN COMPANIES C ON C.ID=A.COMPANY_ID " +
+                "where A.COMPANY_ID=? AND A.ORDINAL<=C.ADDRESS_COUNT AND A.ID IN " +
+                "(select MAX(ID) AS MAX_ID from ADDRESSES WHERE COMPANY_ID=? GROUP BY ORDINAL) " +
+                "ORDER BY A.ORDINAL");
+        statement.setInt(1, companyId);
+        statement.setInt(2, companyId);
+        try (ResultSet rs = statement.executeQuery()) {
+            readAddresses(rs, addresses);
+        }
+        return addresses;
+    }
+
+    /**
+     * Read the rows of an ADDRESSES-COMPANIES join. Each company is materialized once and shared among its addresses.
+     * @param rs the result set of the join
+     * @param addresses the map to put the addresses read into
+     * @throws ApplicationException if an address has an ordinal bigger than it's company's address count
+     */
+    private void readAddresses(ResultSet rs, Map<Integer, Address> addresses)
+            throws SQLException, ApplicationException, MalformedURLException {
+        Map<Integer, Company> companies = new HashMap<>();
+        while (rs.next()) {
+            int id = rs.getInt("ID");
+            String address = rs.getString("ADDRESS");
+            LocalDateTime dateTime = rs.getTimestamp("IMPORT_TIMESTAMP").toLocalDateTime();
+            int companyId = rs.getInt("COMPANY_ID");
+            int ordinal = rs.getInt("ORDINAL");
+            Company company = companies.get(companyId);
+            if (company == null) {
+                String url = rs.getString("URL");
+                String name = rs.getString("NAME");
+                int addressCount = rs.getInt("ADDRESS_COUNT");
+                Optional<String> optionalName = "".equals(name) ? Optional.empty() : Optional.of(name);
+                company = new Company(url, optionalName, addressCount);
+                companies.put(companyId, company);
+            }
+            // extra validation step which normally shouldn't be required
+            if (ordinal > company.getAddressCount()) {
+                String errorMsg = String.format("Can't possibly define an address ordinal " +
+                        "with a value bigger than it's company's address_count. %s -- %s", address, company);
+                log.error(errorMsg);
+                throw new ApplicationException(errorMsg);
+            }
+            addresses.put(id, new Address(address, dateTime, company, ordinal));
+        }
+    }
+
     /**
      * Search for a company in the collection of cached companies that contains a company with the same url and name
      * but differ only on their AddressCount. Used to signify an update.
@@ -255,25 +535,21 @@ public class Database {
      * at least on entry with the same URL and name as the passed argument AND different AddressCount
      * (signifying an update operation). It will return an {@link Optional#empty()} otherwise.
      */
-    private Optional<Integer> getIdForCompanyWithDifferentAddressCount(Company company)
+    private Optional<Integer> getIdForCompanyWithDifferentAddressCount(Company company, StatementCache statements)
             throws SQLException, MalformedURLException {
         Optional<Integer> companyId = Optional.empty();
 
         // first check the cached companies
-        for (HashMap.Entry<Integer, Company> entry : cachedCompanies.entrySet()) {
-            if (entry.getValue().getUrlStr().equals(company.getUrlStr()) &&
-                    entry.getValue().getName().equals(company.getName()) &&
-                    entry.getValue().getAddressCount() != company.getAddressCount()) {
-                companyId = Optional.of(entry.getKey());
+        Optional<Map.Entry<Integer, Company>> cached = getCachedCompanyByUrlAndName(company);
+        if (cached.isPresent()) {
+            if (cached.get().getValue().getAddressCount() != company.getAddressCount()) {
+                companyId = Optional.of(cached.get().getKey());
             }
-        }
-
-        // only in case we haven't found locally the company id then search in the database
-        if (!companyId.isPresent()) {
-            Map<Integer, Company> retrievedCompanies = retrieveCompanies();
+        } else {
+            // only in case we haven't found locally the company then search in the database
+            Map<Integer, Company> retrievedCompanies = retrieveCompaniesWithUrl(company.getUrlStr(), statements);
             for (Map.Entry<Integer, Company> entry : retrievedCompanies.entrySet()) {
-                if (entry.getValue().getUrlStr().equals(company.getUrlStr()) &&
-                        entry.getValue().getName().equals(company.getName()) &&
+                if (entry.getValue().getName().equals(company.getName()) &&
                         entry.getValue().getAddressCount() != company.getAddressCount()) {
                     companyId = Optional.of(entry.getKey());
                 }
@@ -290,46 +566,55 @@ public class Database {
      * at least one entry with the same value AND different timestamp
      * (signifying an update operation). It will return an {@link Optional#empty()} otherwise.
      */
-    private Optional<Integer> getIdForAddress(Address address)
+    private Optional<Integer> getIdForAddress(Address address, StatementCache statements)
             throws SQLException, MalformedURLException {
-        Optional<Integer> addressId = Optional.empty();
-
-        // first check the cached companies
-        for (HashMap.Entry<Integer, Address> entry : cachedAddresses.entrySet()) {
-            if (entry.getValue().getValue().equals(address.getValue())) {
-                addressId = Optional.of(entry.getKey());
-            }
-        }
-
-        // only in case we haven't found locally the address id then search in the database
-        if (!addressId.isPresent()) {
-            try {
-                Map<Integer, Address> retrievedAddresses = retrieveAddresses();
-                for (Map.Entry<Integer, Address> entry : retrievedAddresses.entrySet()) {
-                    if (entry.getValue().getValue().equals(address.getValue())) {
-                        addressId = Optional.of(entry.getKey());
+        // first check the cached addresses
+        Optional<Integer> addressId = getCachedAddressId(address.getValue());
+
+        // only in case we haven't found locally the address id and we don't already know it's missing
+        // probe the database
+        if (!addressId.isPresent() && !absentAddresses.containsKey(address.getValue())) {
+            long generation = addressWriteGeneration;
+            addressId = retrieveAddressId(address.getValue(), statements);
+            if (!addressId.isPresent()) {
+                synchronized (writeLock) {
+                    if (generation == addressWriteGeneration) {
+                        absentAddresses.put(address.getValue(), Boolean.TRUE);
                     }
                 }
-            } catch (ApplicationException e) {
-                log.info("no addressed retrieved");
             }
         }
         return addressId;
     }
 
-    private Optional<Integer> getIdForCompany(Company company) throws SQLException, MalformedURLException {
-        Optional<Integer> companyId = Optional.empty();
+    /**
+     * Point query for the id of an address with the given value using the ADDRESSES_ADDRESS_IDX index.
+     * @param value the value of the address
+     * @return the id of one of the addresses stored with this value or an {@link Optional#empty()} if there is none.
+     * @throws SQLException if retrieval went wrong
+     */
+    private Optional<Integer> retrieveAddressId(String value, StatementCache statements) throws SQLException {
+        PreparedStatement statement = statements.prepare(
+                "SELECT ID FROM ADDRESSES WHERE ADDRESS = ? FETCH FIRST ROW ONLY");
+        statement.setString(1, value);
 
-        // first check the cached companies
-        for (Map.Entry<Integer, Company> entry : cachedCompanies.entrySet()) {
-            if (company.equals(entry.getValue())) {
-                companyId = Optional.of(entry.getKey());
+        Optional<Integer> addressId = Optional.empty();
+        try (ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                addressId = Optional.of(rs.getInt("ID"));
             }
         }
+        return addressId;
+    }
+
+    private Optional<Integer> getIdForCompany(Company company, StatementCache statements)
+            throws SQLException, MalformedURLException {
+        // first check the cached companies
+        Optional<Integer> companyId = getCachedCompanyId(company);
 
         // only in case we haven't found locally the company id then search in the database
         if (!companyId.isPresent()) {
-            Map<Integer, Company> retrievedCompanies = retrieveCompanies();
+            Map<Integer, Company> retrievedCompanies = retrieveCompaniesWithUrl(company.getUrlStr(), statements);
             for (Map.Entry<Integer, Company> entry : retrievedCompanies.entrySet()) {
                 if (company.equals(entry.getValue())) {
                     companyId = Optional.of(entry.getKey());
@@ -342,61 +627,151 @@ public class Database {
     /**
      * Always insert a new record for an address keep old records.
      * Our select statement makes sure we fetch the right ones each time.
-     * This method MUST be synchronized as it's accessed from different threads.
+     * This method is accessed from different threads.
      * @param addresses a collection of addresses
      * @return true if at least one address was updated, false otherwise
      * @throws SQLException
      * @throws ApplicationException
+     * @see #insertAddressGroups(List)
+     */
+    public boolean insertAddresses(Collection<Address> addresses)
+            throws SQLException, ApplicationException, MalformedURLException {
+        return insertAddressGroups(Collections.singletonList(addresses)).get(0);
+    }
+
+    /**
+     * Insert several groups of addresses, ie the results of several tasks, at once.
+     * Looking up the addresses already stored happens concurrently on the read connections. Only the addresses
+     * (and companies) that need to be written take the write lock, and all of them are written in batches
+     * within a single transaction. If anything fails nothing is written.
+     * This method is accessed from different threads.
+     * @param groups the groups of addresses
+     * @return for each group, in the same order, true if at least one address of the group was inserted,
+     * false otherwise. An address appearing in more than one group counts for the first of them.
+     * @throws SQLException
+     * @throws ApplicationException
+     */
+    public List<Boolean> insertAddressGroups(List<? extends Collection<Address>> groups)
+            throws SQLException, ApplicationException, MalformedURLException {
+        List<Boolean> inserted = new ArrayList<>(Collections.nCopies(groups.size(), false));
+        List<Address> toWrite = new ArrayList<>();
+        Map<String, Integer> firstGroupOfValue = new HashMap<>();
+        try (ConnectionPool.PooledConnection connection = readPool.borrow()) {
+            for (int group = 0; group < groups.size(); group++) {
+                for (Address address : groups.get(group)) {
+                    warmUpIfNeeded(address.getCompany(), connection.getStatements());
+                    // make a sanity check in regards to the ordinal-address count relation
+                    if (address.getOrdinal() > address.getCompany().getAddressCount()) {
+                        String errorMsg = "Can't possibly define an address ordinal with a value bigger than it's company's address_count";
+                        log.error(errorMsg);
+                        throw new ApplicationException(errorMsg);
+                    }
+                    // the company might need an update/insert even if the address is already stored
+                    if (!getCachedCompanyId(address.getCompany()).isPresent() ||
+                            !getIdForAddress(address, connection.getStatements()).isPresent()) {
+                        toWrite.add(address);
+                        firstGroupOfValue.putIfAbsent(address.getValue(), group);
+                    }
+                }
+            }
+        }
+        if (toWrite.isEmpty()) {
+            return inserted;
+        }
+
+        synchronized (writeLock) {
+            Map<Integer, Company> writtenCompanies = new LinkedHashMap<>();
+            Map<Integer, Address> writtenAddresses;
+            dbConnection.setAutoCommit(false);
+            try {
+                writtenAddresses = writeAddresses(toWrite, writtenCompanies);
+                dbConnection.commit();
+            } catch (Exception e) {
+                // turning auto-commit back on would otherwise commit whatever was written so far
+                rollback();
+                throw e;
+            } finally {
+                dbConnection.setAutoCommit(true);
+            }
+            if (!writtenAddresses.isEmpty()) {
+                addressWriteGeneration++;
+            }
+            // only cache what has been committed
+            writtenCompanies.forEach(this::cacheCompany);
+            writtenAddresses.forEach(this::cacheAddress);
+            for (Address address : writtenAddresses.values()) {
+                inserted.set(firstGroupOfValue.get(address.getValue()), true);
+            }
+            return inserted;
+        }
+    }
+
+    /**
+     * Batch insert the addresses not already stored without committing. Must be called holding the write lock.
+     * @param addresses a collection of addresses
+     * @param writtenCompanies the companies inserted/updated on the way are put in here mapped by their id
+     * @return the addresses written mapped by their id
      */
-    public synchronized boolean insertAddresses(Collection<Address> addresses)
+    private Map<Integer, Address> writeAddresses(Collection<Address> addresses, Map<Integer, Company> writtenCompanies)
             throws SQLException, ApplicationException, MalformedURLException {
-        boolean inserted = false;
+        // not yet committed, hence not yet cached
+        Map<Company, Integer> pendingCompanyIds = new HashMap<>();
+        Map<String, Address> toInsert = new LinkedHashMap<>();
+        Map<String, Integer> toInsertCompanyIds = new HashMap<>();
         for (Address address : addresses) {
-            Optional<Integer> companyId = getIdForCompany(address.getCompany());
+            Optional<Integer> companyId = Optional.ofNullable(pendingCompanyIds.get(address.getCompany()));
+            if (!companyId.isPresent()) {
+                companyId = getIdForCompany(address.getCompany(), writeStatements);
+            }
 
             // update/insert the company in case not found
             if (!companyId.isPresent()) {
                 log.info("Updating the company for address {}", address.toString());
-                insertCompanies(Collections.singleton(address.getCompany()));
+                Map<Integer, Company> written = writeCompanies(Collections.singleton(address.getCompany()));
+                for (Map.Entry<Integer, Company> entry : written.entrySet()) {
+                    writtenCompanies.put(entry.getKey(), entry.getValue());
+                    pendingCompanyIds.put(entry.getValue(), entry.getKey());
+                }
 
-                companyId = getIdForCompany(address.getCompany());
+                companyId = Optional.ofNullable(pendingCompanyIds.get(address.getCompany()));
                 if (!companyId.isPresent()) {
                     log.error("No companies found for {}" + address.toString());
                     continue;
                 }
             }
 
-            // if there is a company make a sanity check in regards to the ordinal-address count relation
-            if (address.getOrdinal() > address.getCompany().getAddressCount()) {
-                String errorMsg = "Can't possibly define an address ordinal with a value bigger than it's company's address_count";
-                log.error(errorMsg);
-                throw new ApplicationException(errorMsg);
+            if (!toInsert.containsKey(address.getValue()) && !getIdForAddress(address, writeStatements).isPresent()) {
+                toInsert.put(address.getValue(), address);
+                toInsertCompanyIds.put(address.getValue(), companyId.get());
             }
+        }
 
-            if (!getIdForAddress(address).isPresent()) {
-                PreparedStatement statement = dbConnection.prepareStatement(
-                        "INSERT INTO ADDRESSES (ADDRESS, IMPORT_TIMESTAMP, COMPANY_ID, ORDINAL) VALUES (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
-                statement.closeOnCompletion();
+        Map<Integer, Address> written = new LinkedHashMap<>();
+        if (!toInsert.isEmpty()) {
+            PreparedStatement statement = writeStatements.prepare(
+                    "INSERT INTO ADDRESSES (ADDRESS, IMPORT_TIMESTAMP, COMPANY_ID, ORDINAL) VALUES (?, ?, ?, ?)");
+            statement.clearBatch();
+            for (Address address : toInsert.values()) {
                 statement.setString(1, address.getValue());
                 statement.setTimestamp(2, Timestamp.valueOf(address.getDateTime()));
-                statement.setInt(3, companyId.get());
+                statement.setInt(3, toInsertCompanyIds.get(address.getValue()));
                 statement.setInt(4, address.getOrdinal());
-                statement.execute();
-
-                inserted = true;
+                statement.addBatch();
                 log.info("Inserting {}", address.toString());
-                // fetch the auto-increment value we just created
-                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        int id = generatedKeys.getInt(1);
-                        cacheAddress(id, address);
-                    } else {
-                        throw new SQLException("Expected generated keys after inserting an address but got none");
-                    }
-                }
             }
+            List<Integer> ids = executeInsertBatch(statement, "ADDRESSES", toInsert.size());
+            Iterator<Integer> idIterator = ids.iterator();
+            toInsert.values().forEach(address -> written.put(idIterator.next(), address));
+        }
+        return written;
+    }
+
+    private void rollback() {
+        try {
+            dbConnection.rollback();
+        } catch (SQLException e) {
+            log.error("Cannot rollback the transaction", e);
         }
-        return inserted;
     }
 
     private void createTablesIfNotExist() throws SQLException {
@@ -406,6 +781,7 @@ public class Database {
                 createCompaniesTable();
             } else {
                 log.info("COMPANIES table exist");
+                createIndexIfNotExists(dbMetadata, "COMPANIES", "COMPANIES_URL_IDX", CREATE_COMPANIES_INDEX);
             }
         }
 
@@ -414,10 +790,30 @@ public class Database {
                 createAddressesTable();
             } else {
                 log.info("ADDRESSES table exist");
+                createIndexIfNotExists(dbMetadata, "ADDRESSES", "ADDRESSES_ADDRESS_IDX", CREATE_ADDRESSES_INDEX);
             }
         }
     }
 
+    /**
+     * Databases created before the introduction of an index won't have it.
+     */
+    private void createIndexIfNotExists(DatabaseMetaData dbMetadata, String table, String index, String createStmt)
+            throws SQLException {
+        try (ResultSet rs = dbMetadata.getIndexInfo(null, "APP", table, false, false)) {
+            while (rs.next()) {
+                if (index.equals(rs.getString("INDEX_NAME"))) {
+                    return;
+                }
+            }
+        }
+        Statement statement = dbConnection.createStatement();
+        statement.closeOnCompletion();
+        statement.execute(createStmt);
+
+        log.info("{} index created", index);
+    }
+
     private void createCompaniesTable() throws SQLException {
         Statement statement = dbConnection.createStatement();
         statement.closeOnCompletion();
@@ -431,6 +827,7 @@ public class Database {
 
         statement.execute(createStmt);
         statement.execute(alterStmt);
+        statement.execute(CREATE_COMPANIES_INDEX);
 
         log.info("COMPANIES table created");
     }
@@ -453,26 +850,88 @@ public class Database {
         statement.execute(createStmtAddresses);
         statement.execute(alterStmtAddresses1);
         statement.execute(alterStmtAddresses2);
+        statement.execute(CREATE_ADDRESSES_INDEX);
 
         log.info("ADDRESSES table created");
     }
 
     private void populateCompanies() throws SQLException, MalformedURLException {
         Map<Integer, Company> companiesStored = retrieveCompanies();
-        companiesStored.forEach(this::cacheCompany);
+        companiesStored.forEach(this::cacheCompanyIfAbsent);
     }
 
     private void populateAddresses() throws SQLException, ApplicationException, MalformedURLException {
         Map<Integer, Address> addressesStored = retrieveLatestAddresses();
-        addressesStored.forEach(this::cacheAddress);
+        addressesStored.forEach(this::cacheAddressIfAbsent);
+    }
+
+    /**
+     * In the LAZY warm-up mode cache the companies with the same URL as the passed argument
+     * and their latest addresses, the first time we come across that URL.
+     * The URL counts as warmed up only once everything is cached, until then every lookup warms it up
+     * and a failed warm-up is tried again the next time. Caching the same values twice is harmless.
+     */
+    private void warmUpIfNeeded(Company company, StatementCache statements)
+            throws SQLException, ApplicationException, MalformedURLException {
+        if (warmUp != WarmUp.LAZY || warmedUpUrls.contains(company.getUrlStr())) {
+            return;
+        }
+        Map<Integer, Company> companiesStored = retrieveCompaniesWithUrl(company.getUrlStr(), statements);
+        companiesStored.forEach(this::cacheCompanyIfAbsent);
+        for (Integer companyId : companiesStored.keySet()) {
+            Map<Integer, Address> addressesStored = retrieveLatestAddresses(companyId, statements);
+            addressesStored.forEach(this::cacheAddressIfAbsent);
+        }
+        warmedUpUrls.add(company.getUrlStr());
+    }
+
+    /**
+     * Used for values read outside of a write, they must not replace anything cached in the meantime.
+     */
+    private void cacheCompanyIfAbsent(Integer id, Company company) {
+        synchronized (writeLock) {
+            if (cachedCompanies.putIfAbsent(id, company)) {
+                cacheIndex.indexCompany(id, null, company);
+            }
+        }
+    }
+
+    private void cacheAddressIfAbsent(Integer id, Address address) {
+        synchronized (writeLock) {
+            if (cachedAddresses.putIfAbsent(id, address)) {
+                cacheIndex.indexAddress(id, null, address);
+                absentAddresses.remove(address.getValue());
+            }
+        }
     }
 
     private void cacheCompany(Integer id, Company company) {
-        cachedCompanies.put(id, company);
+        Company previous = cachedCompanies.put(id, company);
+        cacheIndex.indexCompany(id, previous, company);
     }
 
     private void cacheAddress(Integer id, Address address) {
-        cachedAddresses.put(id, address);
+        Address previous = cachedAddresses.put(id, address);
+        cacheIndex.indexAddress(id, previous, address);
+        absentAddresses.remove(address.getValue());
+    }
+
+    /**
+     * @return the hit/miss/eviction counters of the caches
+     */
+    public String getCacheStatistics() {
+        return String.format("companies %s, addresses %s, absent addresses %s",
+                cachedCompanies, cachedAddresses, absentAddresses);
+    }
+
+    /**
+     * Close the connections of this instance only, the database keeps running for any other instance over it.
+     */
+    public final void close() {
+        log.info("Cache statistics: {}", getCacheStatistics());
+        readPool.close();
+        writeStatements.close();
+        close(dbConnection);
     }
 
     public final void shutdown() {
@@ -481,8 +940,8 @@ public class Database {
             // by specifying the shutdown=true attribute in the connection URL
             // it's a good practice in general as specified here
             // https://db.apache.org/derby/docs/10.9/devguide/tdevdvlp40464.html
-            dbConnection.close();
-            
+            close();
+
             Connection connection = DriverManager.getConnection(dbShutDownURL);
             log.error("Could get a connection to the database even though the statement should have closed it");
             close(connection);
@@ -523,6 +982,11 @@ public class Database {
         return file.delete();
     }
 
+    private static int getIntProperty(Properties properties, String key, int defaultValue) {
+        Optional<Long> value = Optional.ofNullable(properties.getProperty(key)).flatMap(Util::parseOptionalLong);
+        return value.isPresent() ? value.get().intValue() : defaultValue;
+    }
+
     private boolean checkIfDBShutdownProperly(SQLException ex) {
         if (ex.getErrorCode() == 50000 && "XJ015".equals(ex.getSQLState())) {
             log.info("DB shutdown properly");
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of the prepared statements of a single {@link Connection} keyed by their SQL text,
+ * so that each statement is compiled once per connection.
+ *
+ * The statements handed out are owned by the cache. Callers must not close them
+ * or call {@link PreparedStatement#closeOnCompletion()} on them.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class StatementCache {
+    private static final Logger log = LoggerFactory.getLogger(StatementCache.class);
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Get the prepared statement for the given SQL, preparing it on first use.
+     * @param sql the SQL text of the statement
+     * @return the cached prepared statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Close all the cached statements. Must be called before closing the connection.
+     */
+    synchronized void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                log.error("Cannot close the statement", e);
+            }
+        }
+        statements.clear();
+    }
+}
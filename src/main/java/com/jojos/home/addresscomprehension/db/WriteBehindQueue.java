@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import com.jojos.home.addresscomprehension.ApplicationException;
+import com.jojos.home.addresscomprehension.util.Util;
+import com.jojos.home.addresscomprehension.values.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded write-behind queue in front of the {@link Database}.
+ *
+ * The callers submit their addresses and move on while a dedicated writer thread drains the queue,
+ * coalescing everything waiting into a single {@link Database#insertAddressGroups(List)} transaction.
+ * The result of each submission is handed back through a {@link CompletableFuture}.
+ * Submitting blocks while the queue is full, so a slow database throttles the producers.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class WriteBehindQueue {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Database database;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxGroupsPerTransaction;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param database the database to write to
+     * @param capacity the number of submissions that can wait in the queue before {@link #submit(Collection)} blocks
+     * @param maxGroupsPerTransaction the max number of submissions coalesced in a single transaction
+     */
+    public WriteBehindQueue(Database database, int capacity, int maxGroupsPerTransaction) {
+        this.database = database;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxGroupsPerTransaction = maxGroupsPerTransaction;
+        this.writer = new Thread(this::writeLoop, "db-writer");
+        writer.start();
+    }
+
+    /**
+     * Queue the addresses to be inserted in the database.
+     * @param addresses the addresses to insert
+     * @return a future completed with true if at least one address was inserted, false otherwise. It completes
+     * exceptionally if the addresses could not be stored or the queue is stopped.
+     */
+    public CompletableFuture<Boolean> submit(Collection<Address> addresses) {
+        PendingWrite pendingWrite = new PendingWrite(addresses);
+        try {
+            // don't block forever on a full queue that nobody drains anymore
+            while (!queue.offer(pendingWrite, 1, TimeUnit.SECONDS)) {
+                if (isStopped()) {
+                    pendingWrite.result.completeExceptionally(stoppedException());
+                    return pendingWrite.result;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingWrite.result.completeExceptionally(e);
+            return pendingWrite.result;
+        }
+        // stopped in the meantime. If the submission is still queued nobody is going to write it,
+        // otherwise the writer or stop(long) took it and completes it
+        if (isStopped() && queue.remove(pendingWrite)) {
+            pendingWrite.result.completeExceptionally(stoppedException());
+        }
+        return pendingWrite.result;
+    }
+
+    private boolean isStopped() {
+        return !running || !writer.isAlive();
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> pendingWrites = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                try {
+                    // don't block forever so that we notice when we are stopped
+                    PendingWrite first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    pendingWrites.add(first);
+                    queue.drainTo(pendingWrites, maxGroupsPerTransaction - 1);
+                    write(pendingWrites);
+                } catch (InterruptedException e) {
+                    log.warn("Write-behind queue interrupted");
+                    break;
+                } catch (Error e) {
+                    // don't leave anyone waiting, the writer is done for. The ones already written stay completed
+                    log.error("Write-behind queue failed", e);
+                    pendingWrites.forEach(pendingWrite -> pendingWrite.result.completeExceptionally(e));
+                    throw e;
+                } finally {
+                    pendingWrites.clear();
+                }
+            }
+        } finally {
+            // whatever made us stop, nothing queued is going to be written anymore
+            running = false;
+            rejectQueued();
+            log.info("Write-behind queue stopped");
+        }
+    }
+
+    private void write(List<PendingWrite> pendingWrites) {
+        List<Collection<Address>> groups = new ArrayList<>(pendingWrites.size());
+        pendingWrites.forEach(pendingWrite -> groups.add(pendingWrite.addresses));
+        try {
+            List<Boolean> inserted = database.insertAddressGroups(groups);
+            for (int i = 0; i < pendingWrites.size(); i++) {
+                pendingWrites.get(i).result.complete(inserted.get(i));
+            }
+        } catch (SQLException | ApplicationException | MalformedURLException | RuntimeException e) {
+            if (pendingWrites.size() == 1) {
+                log.error("Cannot save {} in the database.",
+                        Util.toString(pendingWrites.get(0).addresses, Address::toString), e);
+                pendingWrites.get(0).result.completeExceptionally(e);
+            } else {
+                // nothing was written. retry one by one so that a single bad submission doesn't fail the rest
+                for (PendingWrite pendingWrite : pendingWrites) {
+                    List<PendingWrite> single = new ArrayList<>(1);
+                    single.add(pendingWrite);
+                    write(single);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop accepting submissions and wait for the ones already queued to be written.
+     * @param timeoutSeconds the max time to wait for the writer to finish
+     */
+    public void stop(long timeoutSeconds) {
+        // the writer is not interrupted as that could abort a database write half way
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            log.warn("Write-behind queue didn't finish writing within {} seconds", timeoutSeconds);
+        } else {
+            // anything submitted while we were stopping will never be written
+            rejectQueued();
+        }
+    }
+
+    private void rejectQueued() {
+        List<PendingWrite> leftovers = new ArrayList<>();
+        queue.drainTo(leftovers);
+        leftovers.forEach(pendingWrite -> pendingWrite.result.completeExceptionally(stoppedException()));
+    }
+
+    private static IllegalStateException stoppedException() {
+        return new IllegalStateException("Write-behind queue is stopped");
+    }
+
+    private static final class PendingWrite {
+        private final Collection<Address> addresses;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private PendingWrite(Collection<Address> addresses) {
+            this.addresses = addresses;
+        }
+    }
+}
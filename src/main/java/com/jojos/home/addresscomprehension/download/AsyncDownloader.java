@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A downloader keeping many downloads in flight on its own threads, handing back each result
+ * through a {@link CompletableFuture}.
+ *
+ * The downloads are done by a delegate {@link Downloader}, which must apply its own connect and read timeouts
+ * so that a stalled server cannot hold a thread forever. On top of that:
+ * <ul>
+ *     <li>at most a fixed number of downloads are in flight at any time</li>
+ *     <li>at most a fixed number of them go to the same host, the rest wait for their turn
+ *     without holding a thread</li>
+ *     <li>at most a fixed number of downloads wait to start, {@link #downloadAsync(DefaultDownloaderCtx)}
+ *     blocks the caller once that many are waiting</li>
+ *     <li>the downloads failing for a transient reason are tried again according to a {@link RetryPolicy},
+ *     waiting for their next attempt without holding a thread or a slot of their host</li>
+ *     <li>every host has a {@link CircuitBreaker}, the downloads from a host failing over and over fail right away
+ *     for a while instead of waiting for the host to time out</li>
+ * </ul>
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class AsyncDownloader implements Downloader<DefaultDownloaderCtx, DownloadResult> {
+    private static final Logger log = LoggerFactory.getLogger(AsyncDownloader.class);
+
+    private final Downloader<DefaultDownloaderCtx, DownloadResult> delegate;
+    private final int maxPerHost;
+    private final ExecutorService executor;
+    // permits for the downloads accepted but not completed yet, in flight or waiting
+    private final Semaphore admissions;
+    // guarded by itself
+    private final Map<String, HostQueue> hostQueues = new HashMap<>();
+    private final RetryPolicy retryPolicy;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenMillis;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    // triggers the next attempt of the downloads backing off
+    private final ScheduledExecutorService retries;
+    private final Set<PendingDownload> backingOff = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A downloader never retrying a failed download and never failing a download right away.
+     * @see #AsyncDownloader(Downloader, int, int, int, RetryPolicy, int, long)
+     */
+    public AsyncDownloader(Downloader<DefaultDownloaderCtx, DownloadResult> delegate,
+                           int maxInFlight, int maxPerHost, int maxQueued) {
+        this(delegate, maxInFlight, maxPerHost, maxQueued, RetryPolicy.none(), Integer.MAX_VALUE, 0L);
+    }
+
+    /**
+     * @param delegate the downloader doing the actual downloads
+     * @param maxInFlight the max number of downloads in flight, which is also the number of threads used
+     * @param maxPerHost the max number of downloads in flight to the same host
+     * @param maxQueued the max number of downloads waiting to start before callers block
+     * @param retryPolicy how the downloads failing for a transient reason are tried again
+     * @param circuitFailureThreshold the number of failures in a row opening the circuit breaker of a host
+     * @param circuitOpenMillis how long the downloads from a host fail right away once its breaker opened
+     */
+    public AsyncDownloader(Downloader<DefaultDownloaderCtx, DownloadResult> delegate,
+                           int maxInFlight, int maxPerHost, int maxQueued,
+                           RetryPolicy retryPolicy, int circuitFailureThreshold, long circuitOpenMillis) {
+        this.delegate = delegate;
+        this.maxPerHost = maxPerHost;
+        this.retryPolicy = retryPolicy;
+        this.circuitFailureThreshold = circuitFailureThreshold;
+        this.circuitOpenMillis = circuitOpenMillis;
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "downloader-retries");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.admissions = new Semaphore(maxInFlight + maxQueued);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "downloader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // don't keep idle threads around between the runs
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+        log.info("Downloading with at most {} downloads in flight, {} per host, {}",
+                maxInFlight, maxPerHost, retryPolicy);
+    }
+
+    /**
+     * Start a download. Blocks while too many downloads wait to start.
+     * @param context the context of the download
+     * @return a future completed with the result of the download. It never completes exceptionally
+     * because of the download itself, failures are reported through {@link DownloadResult#fail(String)}.
+     */
+    public CompletableFuture<DownloadResult> downloadAsync(DefaultDownloaderCtx context) {
+        PendingDownload download = new PendingDownload(context);
+        try {
+            admissions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            download.result.completeExceptionally(e);
+            return download.result;
+        }
+
+        enqueue(download);
+        return download.result;
+    }
+
+    /**
+     * Start the download if its host has a free slot, otherwise queue it for its turn.
+     */
+    private void enqueue(PendingDownload download) {
+        boolean start;
+        synchronized (hostQueues) {
+            HostQueue hostQueue = hostQueues.computeIfAbsent(download.host, key -> new HostQueue());
+            start = hostQueue.active < maxPerHost;
+            if (start) {
+                hostQueue.active++;
+            } else {
+                hostQueue.pending.add(download);
+            }
+        }
+        if (start) {
+            execute(download);
+        }
+    }
+
+    /**
+     * One of the downloads of the host is done, start the next one waiting for the host, if any.
+     */
+    private void done(String host) {
+        admissions.release();
+        releaseHost(host);
+    }
+
+    /**
+     * One of the downloads of the host no longer needs its slot.
+     */
+    private void releaseHost(String host) {
+        PendingDownload download;
+        synchronized (hostQueues) {
+            HostQueue hostQueue = hostQueues.get(host);
+            download = hostQueue.pending.poll();
+            if (download == null) {
+                hostQueue.active--;
+                if (hostQueue.active == 0) {
+                    hostQueues.remove(host);
+                }
+            }
+        }
+        if (download != null) {
+            execute(download);
+        }
+    }
+
+    private void execute(PendingDownload download) {
+        try {
+            executor.execute(download);
+        } catch (RejectedExecutionException e) {
+            download.result.complete(DownloadResult.fail("Downloader is shut down"));
+            done(download.host);
+        }
+    }
+
+    /**
+     * Download synchronously, still respecting the limits of this downloader.
+     */
+    @Override
+    public DownloadResult download(DefaultDownloaderCtx context) {
+        return downloadAsync(context).join();
+    }
+
+    /**
+     * @param host the host
+     * @return the state of the circuit breaker of the host
+     */
+    public CircuitBreaker.State getCircuitState(String host) {
+        return circuitBreaker(host).getState();
+    }
+
+    private CircuitBreaker circuitBreaker(String host) {
+        return circuitBreakers.computeIfAbsent(host,
+                key -> new CircuitBreaker(circuitFailureThreshold, circuitOpenMillis));
+    }
+
+    /**
+     * Stop the download threads, the downloads in flight are interrupted and the ones waiting fail.
+     */
+    public void shutdown() {
+        retries.shutdownNow();
+        for (PendingDownload download : backingOff) {
+            if (backingOff.remove(download)) {
+                download.result.complete(DownloadResult.fail("Downloader is shut down")
+                        .withAttempts(download.attempts));
+                admissions.release();
+            }
+        }
+        for (Runnable notStarted : executor.shutdownNow()) {
+            PendingDownload download = (PendingDownload) notStarted;
+            download.result.complete(DownloadResult.fail("Downloader is shut down"));
+            done(download.host);
+        }
+    }
+
+    private final class PendingDownload implements Runnable {
+        private final DefaultDownloaderCtx context;
+        private final String host;
+        private final CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+        // only touched by the thread running the attempt, one attempt at a time
+        private int attempts;
+
+        private PendingDownload(DefaultDownloaderCtx context) {
+            this.context = context;
+            this.host = context.getUrl().getHost();
+        }
+
+        @Override
+        public void run() {
+            CircuitBreaker circuitBreaker = circuitBreaker(host);
+            DownloadResult downloadResult;
+            if (!circuitBreaker.allowRequest()) {
+                downloadResult = DownloadResult.circuitOpen("Too many failures of " + host + " lately, not tried");
+            } else {
+                attempts++;
+                try {
+                    downloadResult = delegate.download(context);
+                } catch (RuntimeException e) {
+                    downloadResult = DownloadResult.fail(String.valueOf(e.getMessage()));
+                }
+                if (downloadResult.isRetryable()) {
+                    circuitBreaker.onFailure();
+                    // no point in waiting for an attempt that would fail right away
+                    if (retryPolicy.canRetry(attempts) && circuitBreaker.getState() == CircuitBreaker.State.CLOSED
+                            && backOff()) {
+                        return;
+                    }
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+            }
+            // free the slot before completing, whatever depends on the result may run on this thread
+            done(host);
+            result.complete(downloadResult.withAttempts(attempts));
+        }
+
+        /**
+         * Wait for the next attempt off the download threads and the slots of the host,
+         * the download keeps its admission though.
+         * @return true if the next attempt is scheduled
+         */
+        private boolean backOff() {
+            long delayMillis = retryPolicy.delayMillis(attempts);
+            log.info("Download of {} failed {} times, trying again in {} ms", context.getUrl(), attempts, delayMillis);
+            backingOff.add(this);
+            try {
+                retries.schedule(() -> {
+                    if (backingOff.remove(this)) {
+                        enqueue(this);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                if (backingOff.remove(this)) {
+                    return false;
+                }
+                // shut down in the meantime, which already failed the download
+            }
+            releaseHost(host);
+            return true;
+        }
+    }
+
+    private static final class HostQueue {
+        private int active;
+        private final Deque<PendingDownload> pending = new ArrayDeque<>();
+    }
+}
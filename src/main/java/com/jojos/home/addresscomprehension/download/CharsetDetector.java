@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the charset of a downloaded page the way browsers do, in a single pass over its first bytes:
+ * a byte order mark wins over the charset of the Content-Type header, which wins over the charset declared
+ * by a {@code meta} element in the first {@value #SNIFF_LENGTH} bytes. UTF-8 if none of them tells.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+final class CharsetDetector {
+    static final int SNIFF_LENGTH = 1024;
+
+    private static final Pattern CONTENT_TYPE_CHARSET =
+            Pattern.compile("charset\\s*=\\s*[\"']?([^\\s;\"']+)", Pattern.CASE_INSENSITIVE);
+    // both <meta charset="..."> and <meta http-equiv="Content-Type" content="text/html; charset=...">
+    private static final Pattern META_CHARSET =
+            Pattern.compile("<meta\\s[^>]*?charset\\s*=\\s*[\"']?([^\\s/>;\"']+)", Pattern.CASE_INSENSITIVE);
+
+    private CharsetDetector() {
+    }
+
+    /**
+     * Resolve the charset of the content and skip its byte order mark, if any.
+     * @param contentType the Content-Type header
+     * @param in the content, supporting mark and reset. Nothing but the byte order mark is consumed
+     * @return the charset of the content
+     * @throws IOException if the content cannot be read
+     */
+    static Charset detect(Optional<String> contentType, InputStream in) throws IOException {
+        byte[] prefix = new byte[SNIFF_LENGTH];
+        in.mark(SNIFF_LENGTH);
+        int length = 0;
+        int read;
+        while (length < SNIFF_LENGTH && (read = in.read(prefix, length, SNIFF_LENGTH - length)) != -1) {
+            length += read;
+        }
+        in.reset();
+
+        Optional<Charset> bomCharset = fromBom(prefix, length);
+        if (bomCharset.isPresent()) {
+            // decoders other than the UTF-16 one don't skip the byte order mark
+            long bomLength = bomCharset.get().equals(StandardCharsets.UTF_8) ? 3 : 2;
+            if (in.skip(bomLength) != bomLength) {
+                throw new IOException("Cannot skip the byte order mark");
+            }
+            return bomCharset.get();
+        }
+        Optional<Charset> charset = contentType.flatMap(CharsetDetector::fromContentType);
+        if (!charset.isPresent()) {
+            charset = fromMeta(prefix, length);
+        }
+        return charset.orElse(StandardCharsets.UTF_8);
+    }
+
+    static Optional<Charset> fromBom(byte[] prefix, int length) {
+        if (length >= 3 && (prefix[0] & 0xff) == 0xef && (prefix[1] & 0xff) == 0xbb && (prefix[2] & 0xff) == 0xbf) {
+            return Optional.of(StandardCharsets.UTF_8);
+        }
+        if (length >= 2 && (prefix[0] & 0xff) == 0xfe && (prefix[1] & 0xff) == 0xff) {
+            return Optional.of(StandardCharsets.UTF_16BE);
+        }
+        if (length >= 2 && (prefix[0] & 0xff) == 0xff && (prefix[1] & 0xff) == 0xfe) {
+            return Optional.of(StandardCharsets.UTF_16LE);
+        }
+        return Optional.empty();
+    }
+
+    static Optional<Charset> fromContentType(String contentType) {
+        Matcher matcher = CONTENT_TYPE_CHARSET.matcher(contentType);
+        return matcher.find() ? forName(matcher.group(1)) : Optional.empty();
+    }
+
+    static Optional<Charset> fromMeta(byte[] prefix, int length) {
+        // the declaration itself is ASCII whatever the charset of the page, each byte maps to a char
+        Matcher matcher = META_CHARSET.matcher(new String(prefix, 0, length, StandardCharsets.ISO_8859_1));
+        return matcher.find() ? forName(matcher.group(1)) : Optional.empty();
+    }
+
+    private static Optional<Charset> forName(String name) {
+        String label = name.trim().toLowerCase(Locale.ROOT);
+        // browsers decode pages labelled as latin-1 as windows-1252, a superset of it, and so do the servers mean
+        if (label.equals("iso-8859-1") || label.equals("latin1") || label.equals("us-ascii")) {
+            label = "windows-1252";
+        }
+        try {
+            return Optional.of(Charset.forName(label));
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the failures of the downloads from a host, to stop downloading from the host while it's down.
+ *
+ * Closed the downloads go through. Once a number of them failed in a row the breaker opens and every download
+ * fails right away, without waiting for the host to time out. After a while the breaker is half open and lets
+ * a single download through: if it succeeds the breaker closes again, otherwise it opens again.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // all guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold the number of failures in a row opening the breaker
+     * @param openMillis how long the breaker stays open before letting a download through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Ask for a download to go through. Every download let through must be reported
+     * with {@link #onSuccess()} or {@link #onFailure()}.
+     * @return true if the download may be attempted
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The host served the download, whatever it served.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    /**
+     * The download failed for a reason that may be the host being down.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", consecutiveFailures=" + consecutiveFailures +
+                '}';
+    }
+}
@@ -4,30 +4,155 @@
 
 package com.jojos.home.addresscomprehension.download;
 
+import com.jojos.home.addresscomprehension.util.Util;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * The default downloader is all we got for now.
  * You'll have to live with it.
  *
+ * By default the content is read into memory. Created through {@link #streamingToFile(long)} the content is
+ * streamed straight to the download file instead, with a cap on its size, and the result refers to the file.
+ *
+ * The content is asked for compressed with gzip or deflate, and brotli if a brotli decoder is on the classpath,
+ * and decoded while it's read. The bytes received and the bytes decoded are reported in the result.
+ *
+ * The charset of the page is resolved once from its first bytes by the {@link CharsetDetector}. The content
+ * held in memory is decoded with it, the content streamed to a file is kept as is and the charset is reported
+ * in the result for the parser to decode the file with.
+ *
+ * The responses are always read to the end and closed, never disconnected, so that the connections
+ * go back to the keep-alive pool configured by {@link HttpConnections}.
+ *
  * Created by karanikasg@gmail.com.
  */
 public class DefaultDownloader implements Downloader<DefaultDownloaderCtx, DownloadResult> {
 
-    public static final DefaultDownloader instance = new DefaultDownloader();
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30_000;
+    public static final int DEFAULT_MAX_CONTENT_BYTES = 10 * 1024 * 1024;
+
+    public static final DefaultDownloader instance =
+            new DefaultDownloader(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+
+    // the decoder of the brotli library, brotli is not supported by the Java platform
+    private static final Optional<Constructor<? extends InputStream>> BROTLI_DECODER = findBrotliDecoder();
+    private static final String ACCEPT_ENCODING = BROTLI_DECODER.isPresent() ? "gzip, deflate, br" : "gzip, deflate";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private DefaultDownloader() {}
-    
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    // the max size of the content streamed to the download file, empty if the content is read into memory
+    private final Optional<Long> maxContentBytes;
+
+    private DefaultDownloader(int connectTimeoutMillis, int readTimeoutMillis) {
+        this(connectTimeoutMillis, readTimeoutMillis, Optional.empty());
+    }
+
+    private DefaultDownloader(int connectTimeoutMillis, int readTimeoutMillis, Optional<Long> maxContentBytes) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxContentBytes = maxContentBytes;
+    }
+
+    /**
+     * @param connectTimeoutMillis the max time to wait for the connection to the server, 0 to wait forever
+     * @param readTimeoutMillis the max time to wait for data from the server, 0 to wait forever
+     * @return a downloader giving up on servers that don't respond in time
+     */
+    public static DefaultDownloader withTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        return new DefaultDownloader(connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    /**
+     * The content is never held in memory, large pages don't fill up the heap. The download file is always
+     * written, whatever {@link DefaultDownloaderCtx#isWriteDownloadFile()} says, and it's up to the caller
+     * to clean it up.
+     * @param maxContentBytes the max size of the content, larger pages fail to download
+     * @return a downloader with the same timeouts as this one, streaming the content to the download file
+     */
+    public DefaultDownloader streamingToFile(long maxContentBytes) {
+        return new DefaultDownloader(connectTimeoutMillis, readTimeoutMillis, Optional.of(maxContentBytes));
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Optional<Constructor<? extends InputStream>> findBrotliDecoder() {
+        try {
+            return Optional.of(Class.forName("org.brotli.dec.BrotliInputStream")
+                    .asSubclass(InputStream.class)
+                    .getConstructor(InputStream.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the stream decoding the content, according to its Content-Encoding header
+     */
+    private static InputStream decode(InputStream in, Optional<String> contentEncoding) throws IOException {
+        String encoding = contentEncoding.map(value -> value.trim().toLowerCase(Locale.ROOT)).orElse("identity");
+        switch (encoding) {
+            case "identity":
+            case "":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case "deflate":
+                return new InflaterInputStream(in);
+            case "br":
+                if (!BROTLI_DECODER.isPresent()) {
+                    // brotli was not asked for
+                    throw new UnusableContentException("Unsupported content encoding " + encoding);
+                }
+                try {
+                    return BROTLI_DECODER.get().newInstance(in);
+                } catch (ReflectiveOperationException e) {
+                    throw new UnusableContentException("Cannot decode brotli content: " + e);
+                }
+            default:
+                throw new UnusableContentException("Unsupported content encoding " + encoding);
+        }
+    }
+
     @Override
     public DownloadResult download(DefaultDownloaderCtx context) {
         URL url = context.getUrl();
@@ -36,19 +161,87 @@ public class DefaultDownloader implements Downloader<DefaultDownloaderCtx, Downl
         boolean success = true;
         String content = "";
         String errorMessage = "";
+        Optional<String> eTag = Optional.empty();
+        Optional<String> lastModified = Optional.empty();
+        Optional<String> contentDigest = Optional.empty();
 
+        Optional<Validators> storedValidators = context.loadValidators();
         InputStream in = null;
+        CountingInputStream received = null;
+        CountingInputStream decoded = null;
+        Optional<String> contentEncoding = Optional.empty();
+        Charset charset = StandardCharsets.UTF_8;
 
         try {
-            in = url.openStream();
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                httpConnection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+                // ask for the content only if it changed since the last time
+                storedValidators.ifPresent(stored -> {
+                    stored.getETag().ifPresent(value -> httpConnection.setRequestProperty("If-None-Match", value));
+                    stored.getLastModified().ifPresent(value ->
+                            httpConnection.setRequestProperty("If-Modified-Since", value));
+                });
+                int responseCode = httpConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    log.info("'{}' not modified since the last download", url);
+                    // read whatever was sent so that the connection can be reused
+                    IOUtils.closeQuietly(httpConnection.getInputStream());
+                    return DownloadResult.notModified();
+                }
+                if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    // same as getInputStream() would, but the connection can be reused
+                    HttpConnections.drainErrorStream(httpConnection);
+                    String message = "Server returned HTTP response code: " + responseCode + " for URL: " + url;
+                    if (responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR
+                            && responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT && responseCode != 429) {
+                        // the server is fine, it's the request it doesn't like. 429 is too many requests
+                        log.info("download of '{}' rejected", url);
+                        return DownloadResult.rejected(message);
+                    }
+                    throw new IOException(message);
+                }
+                eTag = Optional.ofNullable(httpConnection.getHeaderField("ETag"));
+                lastModified = Optional.ofNullable(httpConnection.getHeaderField("Last-Modified"));
+                contentEncoding = Optional.ofNullable(httpConnection.getContentEncoding());
+            }
+            // count the bytes as received and as decoded, digest the decoded content while reading it
+            received = new CountingInputStream(connection.getInputStream());
+            in = received;
+            decoded = new CountingInputStream(decode(received, contentEncoding));
+            in = decoded;
+            DigestInputStream digestIn = new DigestInputStream(decoded, newContentDigest());
+            // buffered to look at the first bytes for the charset before reading the content
+            in = new BufferedInputStream(digestIn);
+            charset = CharsetDetector.detect(Optional.ofNullable(connection.getContentType()), in);
 
-            content = IOUtils.toString(in, "UTF-8");
-            FileUtils.writeStringToFile(
-                    context.getDownloadFile(),
-                    content,
-                    StandardCharsets.UTF_8,
-                    false);
+            if (maxContentBytes.isPresent()) {
+                transferToFile(connection, in, context.getDownloadFile(), maxContentBytes.get());
+            } else {
+                content = IOUtils.toString(in, charset);
+            }
+            contentDigest = Optional.of(Util.toHexString(digestIn.getMessageDigest().digest()));
+            if (contentDigest.equals(storedValidators.flatMap(Validators::getContentDigest))) {
+                // the server doesn't know, but the content is the same as the last time
+                log.info("'{}' downloaded but its content didn't change since the last download", url);
+                // the content was transferred all the same
+                return DownloadResult.notModified().withBytes(received.getByteCount(), decoded.getByteCount());
+            }
+            if (context.isWriteDownloadFile() && !maxContentBytes.isPresent()) {
+                FileUtils.writeStringToFile(
+                        context.getDownloadFile(),
+                        content,
+                        StandardCharsets.UTF_8,
+                        false);
+            }
 
+        } catch (UnusableContentException e) {
+            // the host is fine, but downloading the page again won't make its content any more usable
+            log.info("download of '{}' rejected: {}", url, e.getMessage());
+            return DownloadResult.rejected(e.getMessage());
         } catch (IOException e) {
             success = false;
             errorMessage = e.getMessage();
@@ -57,8 +250,15 @@ public class DefaultDownloader implements Downloader<DefaultDownloaderCtx, Downl
         }
 
         if (success) {
-            log.info("download of '{}' successful", url);
-            return DownloadResult.success(content);
+            long bytesReceived = received.getByteCount();
+            long bytesDecoded = decoded.getByteCount();
+            log.info("download of '{}' successful, {} bytes received, {} bytes decoded{}", url,
+                    bytesReceived, bytesDecoded, contentEncoding.map(value -> " from " + value).orElse(""));
+            Validators validators = new Validators(eTag, lastModified, contentDigest);
+            DownloadResult result = maxContentBytes.isPresent()
+                    ? DownloadResult.successInFile(context.getDownloadFile(), validators)
+                    : DownloadResult.success(content, validators);
+            return result.withBytes(bytesReceived, bytesDecoded).withCharset(charset);
         } else {
             log.info("download of '{}' failed", url);
             return DownloadResult.fail(errorMessage);
@@ -66,4 +266,47 @@ public class DefaultDownloader implements Downloader<DefaultDownloaderCtx, Downl
 
     }
 
+    /**
+     * Stream the content to the download file through a channel, never holding more than a buffer of it
+     * in memory. The content goes to a part file first, the download file is replaced only once
+     * the content is complete.
+     */
+    private void transferToFile(URLConnection connection, InputStream in, File downloadFile, long maxContentBytes)
+            throws IOException {
+        long contentLength = connection.getContentLengthLong();
+        if (contentLength > maxContentBytes) {
+            throw new UnusableContentException("Content of " + contentLength + " bytes exceeds the max of "
+                    + maxContentBytes);
+        }
+        Path target = downloadFile.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path part = Files.createTempFile(target.getParent(), downloadFile.getName(), ".part");
+        try {
+            try (ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel file = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                long position = 0L;
+                long transferred;
+                // ask for one byte more than allowed to tell a page of the max size apart from a larger one
+                while (position <= maxContentBytes
+                        && (transferred = file.transferFrom(source, position, maxContentBytes + 1 - position)) > 0) {
+                    position += transferred;
+                }
+                if (position > maxContentBytes) {
+                    throw new UnusableContentException("Content exceeds the max of " + maxContentBytes + " bytes");
+                }
+            }
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * The content was received but cannot be used, like a page too large or in an encoding not supported.
+     */
+    private static final class UnusableContentException extends IOException {
+        private UnusableContentException(String message) {
+            super(message);
+        }
+    }
 }
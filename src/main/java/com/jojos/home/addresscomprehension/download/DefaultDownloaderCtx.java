@@ -4,11 +4,19 @@
 
 package com.jojos.home.addresscomprehension.download;
 
+import com.jojos.home.addresscomprehension.values.Company;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Properties;
 
 /**
  * The context defined for the {@link DefaultDownloader}
@@ -22,17 +30,47 @@ public class DefaultDownloaderCtx implements DownloaderCtx {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final File downloadFile;
+    private final File validatorsFile;
     private final URL url;
+    private final boolean writeDownloadFile;
 
     public DefaultDownloaderCtx(File downloadDirectory, URL url) {
+        this(downloadDirectory, url, true);
+    }
+
+    /**
+     * @param downloadDirectory the directory the download file is written to
+     * @param url the URL to download
+     * @param writeDownloadFile whether the content downloaded is also written to the download file
+     *                          or only kept in memory
+     */
+    public DefaultDownloaderCtx(File downloadDirectory, URL url, boolean writeDownloadFile) {
+        this(downloadDirectory, url, url.toString(), writeDownloadFile);
+    }
+
+    /**
+     * A context of its own for the company, companies sharing the same URL don't share their files.
+     * The download file is written if the company retains its download data.
+     * @param downloadDirectory the directory the download file is written to
+     * @param company the company whose URL is downloaded
+     */
+    public DefaultDownloaderCtx(File downloadDirectory, Company company) {
+        this(downloadDirectory, company.getUrl(), company.getUrlStr() + "\n" + company.getName().orElse(""),
+                company.isRetainDownloadData());
+    }
+
+    private DefaultDownloaderCtx(File downloadDirectory, URL url, String key, boolean writeDownloadFile) {
         this.url = url;
-        String downloadFileName = extractFileName(url);
-        downloadFile = new File(downloadDirectory, downloadFileName);
+        this.writeDownloadFile = writeDownloadFile;
+        String baseName = extractBaseName(url, key);
+        downloadFile = new File(downloadDirectory, baseName + ".html");
+        validatorsFile = new File(downloadDirectory, baseName + ".validators");
     }
 
-    // todo use a more sophisticated method of extraction int he future
-    private String extractFileName(URL url) {
-        return url.getHost() + ".html";
+    // the pages of the same host, or the same page for different companies, may be downloaded at the same time
+    // and each needs files of its own. The host is not enough to tell them apart
+    private String extractBaseName(URL url, String key) {
+        return url.getHost() + "-" + Integer.toHexString(key.hashCode());
     }
 
     public File getDownloadFile() {
@@ -43,6 +81,54 @@ public class DefaultDownloaderCtx implements DownloaderCtx {
         return url;
     }
 
+    public boolean isWriteDownloadFile() {
+        return writeDownloadFile;
+    }
+
+    /**
+     * @return the validators stored for the URL or an empty optional if there are none or they cannot be read.
+     */
+    public Optional<Validators> loadValidators() {
+        if (!validatorsFile.isFile()) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(validatorsFile.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            log.warn("Cannot read the validators from '{}'", validatorsFile, e);
+            return Optional.empty();
+        }
+        Validators validators = Validators.fromProperties(properties);
+        return validators.isEmpty() ? Optional.empty() : Optional.of(validators);
+    }
+
+    /**
+     * Store the validators of the URL for the next download. Call this only after the content downloaded
+     * along with them was dealt with, a stored validator means that the next download is skipped
+     * if the content didn't change.
+     * @param validators the validators to store
+     */
+    public void storeValidators(Validators validators) {
+        try {
+            Files.createDirectories(validatorsFile.getAbsoluteFile().getParentFile().toPath());
+            try (Writer writer = Files.newBufferedWriter(validatorsFile.toPath(), StandardCharsets.UTF_8)) {
+                validators.toProperties().store(writer, url.toString());
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write the validators to '{}'", validatorsFile, e);
+        }
+    }
+
+    /**
+     * Delete the validators stored, so that the next download is not conditional.
+     */
+    public void cleanUpValidators() {
+        if (validatorsFile.delete()) {
+            log.info("File '{}' deleted.", validatorsFile.getName());
+        }
+    }
+
     /**
      * Delete the download file created.
      */
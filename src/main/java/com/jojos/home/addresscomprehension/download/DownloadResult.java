@@ -4,40 +4,206 @@
 
 package com.jojos.home.addresscomprehension.download;
 
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Optional;
 
 /**
  * Object representing the result of a download, signifying success or not.
+ * The content downloaded is either held in memory or, for large pages, streamed to a file the result refers to.
  * <p>
  * Created by karanikasg@gmail.com.
  */
 public class DownloadResult {
+
+    public enum Status {
+        // the content was downloaded
+        SUCCESS,
+        // the content didn't change since the last download, so nothing was downloaded
+        NOT_MODIFIED,
+        // the download failed, possibly for a transient reason
+        FAILED,
+        // the server refused to serve the content or the content cannot be used, trying again won't help
+        REJECTED,
+        // the host failed too often lately, so the download was not even attempted
+        CIRCUIT_OPEN
+    }
+
     private final String content;
-    private final boolean success;
+    private final Optional<File> contentFile;
+    private final Status status;
     private final String errorMessage;
+    private final Optional<Validators> validators;
+    private final long bytesReceived;
+    private final long bytesDecoded;
+    private final Optional<Charset> charset;
+    private final int attempts;
+
+    private DownloadResult(String content, Optional<File> contentFile, Status status, String errorMessage,
+                           Optional<Validators> validators) {
+        this(content, contentFile, status, errorMessage, validators, 0L, 0L, Optional.empty(), 1);
+    }
 
-    private DownloadResult(String content, boolean success, String errorMessage) {
+    private DownloadResult(String content, Optional<File> contentFile, Status status, String errorMessage,
+                           Optional<Validators> validators, long bytesReceived, long bytesDecoded,
+                           Optional<Charset> charset, int attempts) {
         this.content = content;
-        this.success = success;
+        this.contentFile = contentFile;
+        this.status = status;
         this.errorMessage = errorMessage;
+        this.validators = validators;
+        this.bytesReceived = bytesReceived;
+        this.bytesDecoded = bytesDecoded;
+        this.charset = charset;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @param bytesReceived the bytes received from the server, compressed or not
+     * @param bytesDecoded the bytes of the content once decoded
+     * @return a copy of this result with the bytes transferred
+     */
+    DownloadResult withBytes(long bytesReceived, long bytesDecoded) {
+        return new DownloadResult(content, contentFile, status, errorMessage, validators,
+                bytesReceived, bytesDecoded, charset, attempts);
+    }
+
+    /**
+     * @param charset the charset the content was resolved to
+     * @return a copy of this result with the charset
+     */
+    DownloadResult withCharset(Charset charset) {
+        return new DownloadResult(content, contentFile, status, errorMessage, validators,
+                bytesReceived, bytesDecoded, Optional.of(charset), attempts);
+    }
+
+    /**
+     * @param attempts the number of times the download was attempted
+     * @return a copy of this result with the attempts
+     */
+    DownloadResult withAttempts(int attempts) {
+        return new DownloadResult(content, contentFile, status, errorMessage, validators,
+                bytesReceived, bytesDecoded, charset, attempts);
     }
 
     public static DownloadResult success(String content) {
-        return new DownloadResult(content, true, "");
+        return new DownloadResult(content, Optional.empty(), Status.SUCCESS, "", Optional.empty());
+    }
+
+    /**
+     * @param content the content downloaded
+     * @param validators the validators the server sent along with the content
+     * @return a successful result
+     */
+    public static DownloadResult success(String content, Validators validators) {
+        return new DownloadResult(content, Optional.empty(), Status.SUCCESS, "",
+                validators.isEmpty() ? Optional.empty() : Optional.of(validators));
+    }
+
+    /**
+     * @param contentFile the file the content was downloaded to
+     * @param validators the validators the server sent along with the content
+     * @return a successful result whose content is in the file rather than in memory
+     */
+    public static DownloadResult successInFile(File contentFile, Validators validators) {
+        return new DownloadResult("", Optional.of(contentFile), Status.SUCCESS, "",
+                validators.isEmpty() ? Optional.empty() : Optional.of(validators));
+    }
+
+    public static DownloadResult notModified() {
+        return new DownloadResult("", Optional.empty(), Status.NOT_MODIFIED, "", Optional.empty());
     }
 
     public static DownloadResult fail(String errorMessage) {
-        return new DownloadResult("", false, errorMessage);
+        return new DownloadResult("", Optional.empty(), Status.FAILED, errorMessage, Optional.empty());
     }
 
+    /**
+     * @param errorMessage why the server refused to serve the content or why the content cannot be used
+     * @return a failed result not worth retrying
+     */
+    public static DownloadResult rejected(String errorMessage) {
+        return new DownloadResult("", Optional.empty(), Status.REJECTED, errorMessage, Optional.empty());
+    }
+
+    /**
+     * @param errorMessage why the download was not attempted
+     * @return a failed result of a download not attempted because its host failed too often lately
+     */
+    public static DownloadResult circuitOpen(String errorMessage) {
+        return new DownloadResult("", Optional.empty(), Status.CIRCUIT_OPEN, errorMessage, Optional.empty());
+    }
+
+    /**
+     * @return the content downloaded, empty if it was downloaded to {@link #getContentFile()}
+     */
     public String getContent() {
         return content;
     }
 
+    /**
+     * @return the file the content was downloaded to, if it was not kept in memory
+     */
+    public Optional<File> getContentFile() {
+        return contentFile;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
     public boolean isSuccess() {
-        return success;
+        return status == Status.SUCCESS;
+    }
+
+    public boolean isNotModified() {
+        return status == Status.NOT_MODIFIED;
+    }
+
+    /**
+     * @return true if the download failed for a reason that may go away if tried again
+     */
+    public boolean isRetryable() {
+        return status == Status.FAILED;
     }
 
     public String getErrorMessage() {
         return errorMessage;
     }
+
+    /**
+     * @return the number of times the download was attempted, 0 if it was not attempted at all
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the charset of the content, which the content held in memory is already decoded with
+     * and the content in {@link #getContentFile()} has to be decoded with
+     */
+    public Optional<Charset> getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the bytes received from the server, less than {@link #getBytesDecoded()} if the content was compressed
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return the bytes of the content once decoded
+     */
+    public long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    /**
+     * @return the validators of the content downloaded, if the server sent any
+     */
+    public Optional<Validators> getValidators() {
+        return validators;
+    }
 }
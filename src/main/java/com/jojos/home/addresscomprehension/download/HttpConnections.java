@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reuse of the HTTP connections and TLS sessions across the downloads of the same host.
+ *
+ * The {@link HttpURLConnection}s of the Java platform already keep the idle connections in a pool keyed
+ * by host and port, and the TLS sessions of the default {@link SSLContext} in a cache keyed by host and port,
+ * so a download reusing them skips the TCP and TLS handshakes. A connection goes back to the pool only if its
+ * response was read to the end and closed though, and the pool and the cache are sized for browsing
+ * rather than for a scheduler downloading the same hosts over and over. This class takes care of both.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public final class HttpConnections {
+    private static final Logger log = LoggerFactory.getLogger(HttpConnections.class);
+
+    // the error pages larger than that are not worth reading to reuse the connection
+    private static final int MAX_DRAINED_BYTES = 64 * 1024;
+
+    private HttpConnections() {
+    }
+
+    /**
+     * Size the pool of idle connections and the lifetime of the TLS sessions. Must be called before
+     * the first connection is opened, the pool is sized once. Whatever is set on the command line wins.
+     * @param maxIdlePerHost the max number of idle connections kept per host, which should be at least
+     *                       the number of downloads in flight to the same host
+     * @param tlsSessionTimeoutSeconds how long a TLS session can be resumed, which should exceed
+     *                                 the period between two runs to skip the full handshakes of the next run
+     */
+    public static void configure(int maxIdlePerHost, int tlsSessionTimeoutSeconds) {
+        setIfAbsent("http.keepAlive", "true");
+        setIfAbsent("http.maxConnections", String.valueOf(maxIdlePerHost));
+        try {
+            SSLSessionContext sessions = SSLContext.getDefault().getClientSessionContext();
+            if (sessions.getSessionTimeout() != 0 && sessions.getSessionTimeout() < tlsSessionTimeoutSeconds) {
+                sessions.setSessionTimeout(tlsSessionTimeoutSeconds);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Cannot configure the TLS sessions", e);
+        }
+        log.info("Keeping up to {} idle connections per host, TLS sessions are resumed for {} seconds",
+                System.getProperty("http.maxConnections"), tlsSessionTimeoutSeconds);
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Read the error page of a failed response to the end, so that its connection goes back to the pool.
+     * @param connection the connection whose response failed
+     */
+    static void drainErrorStream(HttpURLConnection connection) {
+        try (InputStream errorStream = connection.getErrorStream()) {
+            if (errorStream == null) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            long drained = 0L;
+            int read;
+            while (drained <= MAX_DRAINED_BYTES && (read = errorStream.read(buffer)) != -1) {
+                drained += read;
+            }
+        } catch (IOException e) {
+            // the connection is closed rather than reused, nothing else to do
+            log.debug("Cannot drain the error stream of {}", connection.getURL(), e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and after how long a failed download is tried again.
+ *
+ * The backoff doubles with every attempt up to a max, and the actual delay is a random one up to the backoff
+ * so that the downloads failing together, like the pages of a host that went down, don't retry together.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class RetryPolicy {
+    private static final RetryPolicy NONE = new RetryPolicy(1, 0L, 0L);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    /**
+     * @param maxAttempts the max number of attempts of a download, including the first one
+     * @param initialBackoffMillis the backoff before the second attempt
+     * @param maxBackoffMillis the max backoff before any attempt
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = Math.max(0L, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * @return a policy never trying a failed download again
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * @param attempts the number of attempts so far
+     * @return true if the download may be attempted again
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * @param attempts the number of attempts so far, at least one
+     * @return the delay before the next attempt, random between 0 and the backoff of the attempt
+     */
+    public long delayMillis(int attempts) {
+        // no need to shift further, the backoff would be larger than the max anyway
+        int doublings = Math.min(attempts - 1, 30);
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << doublings);
+        return backoff > 0 ? ThreadLocalRandom.current().nextLong(backoff + 1) : 0L;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMillis=" + initialBackoffMillis +
+                ", maxBackoffMillis=" + maxBackoffMillis +
+                '}';
+    }
+}
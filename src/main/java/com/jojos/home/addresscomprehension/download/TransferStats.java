@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bytes transferred by the downloads of a page over all the runs, as received from the server
+ * and once decoded. Their ratio tells how much compressing the content saves.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class TransferStats {
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesDecoded = new LongAdder();
+
+    /**
+     * Count the bytes transferred by a download.
+     * @param downloadResult the result of the download
+     */
+    public void add(DownloadResult downloadResult) {
+        downloads.increment();
+        bytesReceived.add(downloadResult.getBytesReceived());
+        bytesDecoded.add(downloadResult.getBytesDecoded());
+    }
+
+    public long getDownloads() {
+        return downloads.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStats{" +
+                "downloads=" + downloads +
+                ", bytesReceived=" + bytesReceived +
+                ", bytesDecoded=" + bytesDecoded +
+                '}';
+    }
+}
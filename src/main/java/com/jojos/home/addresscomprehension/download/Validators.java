@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * The validators of a downloaded page, its {@code ETag} and {@code Last-Modified} response headers
+ * and the digest of its content.
+ *
+ * Sent back in the {@code If-None-Match} and {@code If-Modified-Since} request headers the HTTP validators
+ * let the server answer with a "304 Not Modified" instead of the whole page if the page didn't change since.
+ * The content digest catches the unchanged pages of the servers that don't support that.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Validators {
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last_modified";
+    private static final String CONTENT_DIGEST = "content_digest";
+
+    private final Optional<String> eTag;
+    private final Optional<String> lastModified;
+    private final Optional<String> contentDigest;
+
+    public Validators(Optional<String> eTag, Optional<String> lastModified) {
+        this(eTag, lastModified, Optional.empty());
+    }
+
+    /**
+     * @param eTag the ETag header
+     * @param lastModified the Last-Modified header
+     * @param contentDigest the hex SHA-256 digest of the content
+     */
+    public Validators(Optional<String> eTag, Optional<String> lastModified, Optional<String> contentDigest) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentDigest = contentDigest;
+    }
+
+    public Optional<String> getETag() {
+        return eTag;
+    }
+
+    public Optional<String> getLastModified() {
+        return lastModified;
+    }
+
+    public Optional<String> getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * @return true if there is no validator at all
+     */
+    public boolean isEmpty() {
+        return !eTag.isPresent() && !lastModified.isPresent() && !contentDigest.isPresent();
+    }
+
+    Properties toProperties() {
+        Properties properties = new Properties();
+        eTag.ifPresent(value -> properties.setProperty(ETAG, value));
+        lastModified.ifPresent(value -> properties.setProperty(LAST_MODIFIED, value));
+        contentDigest.ifPresent(value -> properties.setProperty(CONTENT_DIGEST, value));
+        return properties;
+    }
+
+    static Validators fromProperties(Properties properties) {
+        return new Validators(Optional.ofNullable(properties.getProperty(ETAG)),
+                Optional.ofNullable(properties.getProperty(LAST_MODIFIED)),
+                Optional.ofNullable(properties.getProperty(CONTENT_DIGEST)));
+    }
+
+    @Override
+    public String toString() {
+        return "Validators{" +
+                "eTag=" + eTag +
+                ", lastModified=" + lastModified +
+                ", contentDigest=" + contentDigest +
+                '}';
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.exec;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A task handing its work to other threads and returning before that work is done.
+ *
+ * The {@link Scheduler} counts such a task as running until the future returned by {@link #start()} completes,
+ * not until {@link #run()} returns, so that its limits apply to the work of the task rather than to handing it over.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public interface AsyncTask extends Runnable {
+
+    /**
+     * Start the work of the task.
+     * @return a future completed once all the work started is done, successfully or not
+     */
+    CompletableFuture<?> start();
+
+    @Override
+    default void run() {
+        start();
+    }
+}
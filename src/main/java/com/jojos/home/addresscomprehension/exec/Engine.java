@@ -5,7 +5,8 @@
 package com.jojos.home.addresscomprehension.exec;
 
 import com.jojos.home.addresscomprehension.ApplicationException;
-import com.jojos.home.addresscomprehension.db.Database;
+import com.jojos.home.addresscomprehension.db.WriteBehindQueue;
+import com.jojos.home.addresscomprehension.download.AsyncDownloader;
 import com.jojos.home.addresscomprehension.email.Email;
 import com.jojos.home.addresscomprehension.values.Company;
 import org.slf4j.Logger;
@@ -21,33 +22,52 @@ import java.util.Set;
  * The class responsible for the heavy lifting of the application.
  * Tasks like scheduling the download, parsing and storing all information relevant to addresses and companies
  *
+ * The scheduler threads only feed the pages to the {@link Pipeline}, whose stages run on threads of their own
+ * so that waiting for the network, parsing, the database and the mail server don't compete for the same threads.
+ *
  * Created by karanikasg@gmail.com.
  */
 public class Engine {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final Set<SchedulerTask> tasks;
-    private final Database database;
+    private final Pipeline pipeline;
     private final Scheduler<SchedulerTask> scheduler;
-    private final Email email;
 
     public Engine(Set<Company> companies,
-                  Database database,
+                  AsyncDownloader downloader,
+                  WriteBehindQueue writeBehindQueue,
                   Email email,
                   Optional<LocalTime> schedulerRunTime,
                   long periodInSeconds,
                   File downloadDirectory,
-                  int threadCount) throws ApplicationException {
-        this.database = database;
-        this.email = email;
+                  int threadCount,
+                  boolean virtualThreads,
+                  long spreadWindowInSeconds,
+                  long maxJitterInSeconds,
+                  int parserThreads,
+                  int parseQueueCapacity,
+                  int notifyQueueCapacity) throws ApplicationException {
+        // emails are dispatched one at a time, off the parser and database writer threads
+        this.pipeline = new Pipeline(downloader,
+                new Stage("parser", parserThreads, parseQueueCapacity),
+                writeBehindQueue,
+                new Stage("notifier", 1, notifyQueueCapacity),
+                email);
         this.tasks = createTasks(companies, downloadDirectory);
-        this.scheduler = new Scheduler<>(schedulerRunTime, periodInSeconds, threadCount);
+        this.scheduler = virtualThreads
+                ? Scheduler.withVirtualThreads(schedulerRunTime, periodInSeconds, threadCount)
+                : new Scheduler<>(schedulerRunTime, periodInSeconds, threadCount);
+        if (spreadWindowInSeconds > 0 || maxJitterInSeconds > 0) {
+            // a company keeps its place in the window, so its site is downloaded about the same time every day
+            scheduler.spreadOver(spreadWindowInSeconds, maxJitterInSeconds, task -> task.getCompany().getUrlStr());
+        }
     }
 
     private Set<SchedulerTask> createTasks(Set<Company> companies, File downloadDirectory) throws ApplicationException {
         Set<SchedulerTask> tasksWrappers = new HashSet<>();
         for (Company company : companies) {
-            tasksWrappers.add(SchedulerTask.of(company, downloadDirectory, database, email));
+            tasksWrappers.add(SchedulerTask.of(company, downloadDirectory, pipeline));
         }
         return tasksWrappers;
     }
@@ -58,6 +78,7 @@ public class Engine {
 
     public void shutdown() {
         scheduler.stop();
+        pipeline.shutdown();
     }
 
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.exec;
+
+import com.jojos.home.addresscomprehension.db.WriteBehindQueue;
+import com.jojos.home.addresscomprehension.download.AsyncDownloader;
+import com.jojos.home.addresscomprehension.download.DefaultDownloaderCtx;
+import com.jojos.home.addresscomprehension.download.DownloadResult;
+import com.jojos.home.addresscomprehension.download.TransferStats;
+import com.jojos.home.addresscomprehension.email.Email;
+import com.jojos.home.addresscomprehension.parse.DefaultParserCtx;
+import com.jojos.home.addresscomprehension.parse.Parser;
+import com.jojos.home.addresscomprehension.util.Util;
+import com.jojos.home.addresscomprehension.values.Address;
+import com.jojos.home.addresscomprehension.values.Company;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * The stages a company page goes through: download → parse → dedupe → persist → notify.
+ *
+ * Every stage runs on threads of its own and hands its result to the next one through a bounded queue:
+ * <ul>
+ *     <li>download on the {@link AsyncDownloader} threads, bounded per host and in total</li>
+ *     <li>parse on the parse {@link Stage}, sized to the cpu cores</li>
+ *     <li>dedupe on the parse threads right after parsing, it's only a few comparisons</li>
+ *     <li>persist on the {@link WriteBehindQueue} writer thread</li>
+ *     <li>notify on the notify {@link Stage}</li>
+ * </ul>
+ * So a page is parsed while others are downloaded, stored or reported and a slow database or mail server
+ * only holds back the pages that reach it, until its queue fills up and the stages before it block.
+ * The throughput is the one of the slowest stage rather than the sum of all stages.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Pipeline {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AsyncDownloader downloader;
+    private final Stage parseStage;
+    private final WriteBehindQueue writeBehindQueue;
+    private final Stage notifyStage;
+    private final Email email;
+    private final Map<Company, TransferStats> transferStats = new ConcurrentHashMap<>();
+
+    /**
+     * @param downloader the download stage
+     * @param parseStage the stage the pages downloaded are parsed and deduped on
+     * @param writeBehindQueue the persist stage
+     * @param notifyStage the stage the emails are dispatched on
+     * @param email dispatches the addresses that changed
+     */
+    public Pipeline(AsyncDownloader downloader, Stage parseStage, WriteBehindQueue writeBehindQueue,
+                    Stage notifyStage, Email email) {
+        this.downloader = downloader;
+        this.parseStage = parseStage;
+        this.writeBehindQueue = writeBehindQueue;
+        this.notifyStage = notifyStage;
+        this.email = email;
+    }
+
+    /**
+     * Feed a page to the pipeline. Blocks only while the download stage is full.
+     * @param company the company of the page
+     * @param downloaderCtx the context of the download of the page
+     * @return a future completed once the page went through all the stages it had to
+     */
+    public CompletableFuture<Void> submit(Company company, DefaultDownloaderCtx downloaderCtx) {
+        Page page = new Page(company, downloaderCtx);
+        return downloader.downloadAsync(downloaderCtx)
+                .thenApplyAsync(downloadResult -> parse(page, downloadResult), parseStage)
+                .thenApply(this::dedupe)
+                .thenCompose(this::persist)
+                .thenAcceptAsync(this::notify, notifyStage)
+                .whenComplete((nothing, e) -> done(page, e));
+    }
+
+    private Page parse(Page page, DownloadResult downloadResult) {
+        page.downloadResult = downloadResult;
+        // a page found unchanged only once downloaded transferred its bytes too
+        if (downloadResult.getBytesReceived() > 0 || downloadResult.getBytesDecoded() > 0) {
+            TransferStats stats = transferStats.computeIfAbsent(page.company, company -> new TransferStats());
+            stats.add(downloadResult);
+            log.debug("{} for {}", stats, page.company.getUrlStr());
+        }
+        if (downloadResult.isNotModified()) {
+            // the addresses of the content downloaded last time are already stored
+            log.info("Nothing changed for {} since the last download", page.company.getUrlStr());
+        } else if (downloadResult.isSuccess()) {
+            for (Parser parser : page.company.getRegisteredParsers()) {
+                try {
+                    // large pages are streamed to a file rather than held in memory
+                    List<Address> addresses = downloadResult.getContentFile().isPresent()
+                            ? parser.extractAddressesFromFile(downloadResult.getContentFile().get(),
+                                    page.company, downloadResult.getCharset().map(DefaultParserCtx::new))
+                            : parser.extractAddressesFromHtml(downloadResult.getContent(),
+                                    page.company, Optional.empty());
+                    if (addresses != null && !addresses.isEmpty()) {
+                        page.found.add(addresses);
+                    }
+                } catch (IOException e) {
+                    page.extracted = false;
+                    log.error("Error while extracting address from the content of {}", page.company.getUrlStr());
+                }
+            }
+        } else {    // nothing to extract/parse on download failure. log the error and move on
+            page.extracted = false;
+            log.error("Downloading {} failed ({} after {} attempts) with reason {}", page.company.toString(),
+                    downloadResult.getStatus(), downloadResult.getAttempts(), downloadResult.getErrorMessage());
+        }
+        return page;
+    }
+
+    /**
+     * Several parsers often find the very same addresses, store and report them once.
+     */
+    private Page dedupe(Page page) {
+        Set<List<String>> seen = new HashSet<>();
+        page.found.removeIf(addresses ->
+                !seen.add(addresses.stream().map(Address::getValue).collect(Collectors.toList())));
+        return page;
+    }
+
+    /**
+     * A failed write doesn't fail the page, the addresses stored by the other writes are still reported.
+     */
+    private CompletableFuture<Page> persist(Page page) {
+        // insert the addresses. the underlying code will make sure that the companies are also updated if needed.
+        List<CompletableFuture<?>> writes = new ArrayList<>();
+        for (List<Address> addresses : page.found) {
+            writes.add(writeBehindQueue.submit(addresses).handle((inserted, e) -> {
+                if (e != null) {
+                    page.persisted = false;
+                    log.error("Cannot save {} in the database.", Util.toString(addresses, Address::toString));
+                } else if (inserted) {
+                    page.inserted.add(addresses);
+                } else {
+                    log.info("No address update was necessary for " + Util.toString(addresses, Address::getValue));
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(nothing -> page);
+    }
+
+    private void notify(Page page) {
+        for (List<Address> addresses : page.inserted) {
+            try {
+                email.dispatch(addresses);
+            } catch (RuntimeException e) {
+                // the addresses are stored, a failed email is not a reason to process the page again
+                log.error("Cannot dispatch the email for {}", Util.toString(addresses, Address::getValue), e);
+            }
+        }
+    }
+
+    private void done(Page page, Throwable e) {
+        if (e != null) {
+            log.error("Processing {} failed", page.company, e);
+        } else if (page.extracted && page.persisted && page.downloadResult.isSuccess()) {
+            // remember the validators once the content is fully dealt with, so that the next download
+            // can be skipped if the content doesn't change. If anything failed the content is processed again.
+            page.downloadResult.getValidators().ifPresent(page.downloaderCtx::storeValidators);
+        }
+        if (!page.company.isRetainDownloadData()) {
+            page.downloaderCtx.cleanUp();
+        }
+    }
+
+    /**
+     * A page on its way through the stages. Each stage hands it to the next one, it's never used concurrently.
+     */
+    private static final class Page {
+        private final Company company;
+        private final DefaultDownloaderCtx downloaderCtx;
+        private DownloadResult downloadResult;
+        private boolean extracted = true;
+        // written by the writer thread, read once all the writes completed
+        private volatile boolean persisted = true;
+        private final List<List<Address>> found = new ArrayList<>();
+        // written by the writer thread, one address list at a time
+        private final List<List<Address>> inserted = new CopyOnWriteArrayList<>();
+
+        private Page(Company company, DefaultDownloaderCtx downloaderCtx) {
+            this.company = company;
+            this.downloaderCtx = downloaderCtx;
+        }
+    }
+
+    /**
+     * @return the bytes downloaded per company so far
+     */
+    public Map<Company, TransferStats> getTransferStats() {
+        return Collections.unmodifiableMap(transferStats);
+    }
+
+    /**
+     * Stop the stages owned by the pipeline, the pages already handed over are still processed.
+     * The write-behind queue is stopped by its owner, after the pipeline.
+     */
+    public void shutdown() {
+        downloader.shutdown();
+        parseStage.shutdown();
+        notifyStage.shutdown();
+    }
+}
@@ -7,19 +7,36 @@ package com.jojos.home.addresscomprehension.exec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * A class that creates and executes a periodic action on a collection of {@link SchedulerTask}s.
  *
+ * By default the tasks run on a fixed number of scheduler threads. Created through
+ * {@link #withVirtualThreads(Optional, long, int)} a single thread only triggers the tasks on schedule,
+ * each run is executed on a thread of its own and a semaphore bounds how many of them run at the same time.
+ * An {@link AsyncTask} runs until the work it started is done.
+ *
+ * By default all the tasks start at the same instant. {@link #spreadOver(long, long, Function)} spreads them
+ * across a window instead, each task at an offset derived from its key so that it keeps its place
+ * in the window from one start of the application to the next, plus a random jitter.
+ *
  * Created by karanikasg@gmail.com.
  */
 public class Scheduler<T extends Runnable> {
@@ -29,6 +46,14 @@ public class Scheduler<T extends Runnable> {
     private final ScheduledExecutorService executorService;
     private final Optional<LocalTime> schedulerRunTime;
     private final long periodInSeconds;
+    // the executor running the tasks triggered, if they don't run on the scheduler threads
+    private final Optional<ExecutorService> taskExecutor;
+    // bounds the tasks running on the task executor, the scheduler threads bound themselves
+    private final Optional<Semaphore> concurrency;
+    // no spreading by default, all the tasks start at the same instant
+    private long spreadWindowMillis = 0L;
+    private long maxJitterMillis = 0L;
+    private Function<? super T, String> spreadKey = task -> String.valueOf(task.hashCode());
 
     /**
      * Constructor of the scheduler
@@ -42,6 +67,67 @@ public class Scheduler<T extends Runnable> {
         this.schedulerRunTime = schedulerRunTime;
         executorService = Executors.newScheduledThreadPool(threadCount);
         this.periodInSeconds = periodInSeconds;
+        this.taskExecutor = Optional.empty();
+        this.concurrency = Optional.empty();
+    }
+
+    private Scheduler(Optional<LocalTime> schedulerRunTime, long periodInSeconds,
+                      ExecutorService taskExecutor, int maxConcurrency) {
+        this.schedulerRunTime = schedulerRunTime;
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        this.periodInSeconds = periodInSeconds;
+        this.taskExecutor = Optional.of(taskExecutor);
+        this.concurrency = Optional.of(new Semaphore(maxConcurrency));
+    }
+
+    /**
+     * Create a scheduler running every task on a virtual thread of its own, if the Java runtime supports them.
+     * Otherwise a new platform thread is used per task, reusing the idle ones.
+     *
+     * @param schedulerRunTime same as {@link #Scheduler(Optional, long, int)}
+     * @param periodInSeconds the period between two successive runs.
+     * @param maxConcurrency the max number of tasks running at the same time.
+     * @param <T> the type of the tasks
+     * @return a new scheduler
+     */
+    public static <T extends Runnable> Scheduler<T> withVirtualThreads(Optional<LocalTime> schedulerRunTime,
+                                                                      long periodInSeconds,
+                                                                      int maxConcurrency) {
+        return new Scheduler<>(schedulerRunTime, periodInSeconds, newThreadPerTaskExecutor(), maxConcurrency);
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            // looked up reflectively as virtual threads are not part of the Java version we compile against
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            LoggerFactory.getLogger(Scheduler.class).info("Running the tasks on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            LoggerFactory.getLogger(Scheduler.class).info("Virtual threads are not supported, " +
+                    "running the tasks on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Spread the start of the tasks across a window instead of starting them all at the same instant,
+     * smoothing the load on the network, the parsers and the database and staying under the rate limits
+     * of the servers. Must be called before {@link #submit(Collection)}.
+     *
+     * @param windowInSeconds the window the tasks are spread across, at most the period
+     * @param maxJitterInSeconds the max random delay added to the offset of each task
+     * @param key the key of a task, which its offset in the window is derived from
+     * @return this scheduler
+     */
+    public Scheduler<T> spreadOver(long windowInSeconds, long maxJitterInSeconds, Function<? super T, String> key) {
+        long periodMillis = TimeUnit.SECONDS.toMillis(periodInSeconds);
+        this.spreadWindowMillis = Math.min(TimeUnit.SECONDS.toMillis(Math.max(windowInSeconds, 0L)), periodMillis);
+        this.maxJitterMillis = Math.min(TimeUnit.SECONDS.toMillis(Math.max(maxJitterInSeconds, 0L)), periodMillis);
+        this.spreadKey = key;
+        log.info("Spreading the tasks across {} seconds with a jitter of up to {} seconds",
+                windowInSeconds, maxJitterInSeconds);
+        return this;
     }
 
     /**
@@ -65,9 +151,39 @@ public class Scheduler<T extends Runnable> {
             initialDelay = duration.getSeconds();
         }
 
-        for (Runnable task : tasks) {
-            executorService.scheduleAtFixedRate(task, initialDelay, periodInSeconds, TimeUnit.SECONDS);
+        long initialDelayMillis = TimeUnit.SECONDS.toMillis(initialDelay);
+        long periodMillis = TimeUnit.SECONDS.toMillis(periodInSeconds);
+        for (T task : tasks) {
+            long delayMillis = initialDelayMillis;
+            if (spreadWindowMillis > 0) {
+                delayMillis += offsetMillis(spreadKey.apply(task), spreadWindowMillis);
+            }
+            if (maxJitterMillis > 0) {
+                delayMillis += ThreadLocalRandom.current().nextLong(maxJitterMillis);
+            }
+            Runnable scheduled = taskExecutor.isPresent()
+                    ? new Dispatcher(task, taskExecutor.get(), concurrency.get())
+                    : task;
+            executorService.scheduleAtFixedRate(scheduled, delayMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The offset of a key in a window, the same for the same key in every run of the application.
+     * {@link String#hashCode()} of similar keys like URLs differ little, the bits are mixed to spread them evenly.
+     */
+    static long offsetMillis(String key, long windowMillis) {
+        long hash = 1125899906842597L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = 31 * hash + b;
         }
+        // the finalizer of MurmurHash3
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return Math.floorMod(hash, windowMillis);
     }
 
     /**
@@ -76,6 +192,64 @@ public class Scheduler<T extends Runnable> {
     public void stop() {
         final List<Runnable> rejected = executorService.shutdownNow();
         log.debug("Ongoing rejected tasks: {}", rejected.size());
+        taskExecutor.ifPresent(ExecutorService::shutdownNow);
+    }
 
+    /**
+     * Triggered on schedule, runs the task on the task executor once a permit is available.
+     * A run is skipped if the previous run of the task has not finished yet, same as with the scheduler threads.
+     * An {@link AsyncTask} keeps its permit and counts as running until the work it started is done.
+     */
+    private final class Dispatcher implements Runnable {
+        private final Runnable task;
+        private final ExecutorService executor;
+        private final Semaphore concurrency;
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private Dispatcher(Runnable task, ExecutorService executor, Semaphore concurrency) {
+            this.task = task;
+            this.executor = executor;
+            this.concurrency = concurrency;
+        }
+
+        @Override
+        public void run() {
+            if (!running.compareAndSet(false, true)) {
+                log.warn("Previous run of {} not finished yet, skipping this one", task);
+                return;
+            }
+            try {
+                // waiting here holds back the triggering of the rest of the tasks, which is what we want
+                concurrency.acquire();
+            } catch (InterruptedException e) {
+                running.set(false);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    boolean started = false;
+                    try {
+                        if (task instanceof AsyncTask) {
+                            ((AsyncTask) task).start().whenComplete((result, e) -> finished());
+                            started = true;
+                        } else {
+                            task.run();
+                        }
+                    } finally {
+                        if (!started) {
+                            finished();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                finished();
+            }
+        }
+
+        private void finished() {
+            concurrency.release();
+            running.set(false);
+        }
     }
 }
@@ -4,104 +4,62 @@
 
 package com.jojos.home.addresscomprehension.exec;
 
-import com.jojos.home.addresscomprehension.ApplicationException;
-import com.jojos.home.addresscomprehension.db.Database;
-import com.jojos.home.addresscomprehension.download.DefaultDownloader;
 import com.jojos.home.addresscomprehension.download.DefaultDownloaderCtx;
-import com.jojos.home.addresscomprehension.download.DownloadResult;
-import com.jojos.home.addresscomprehension.download.Downloader;
-import com.jojos.home.addresscomprehension.email.Email;
-import com.jojos.home.addresscomprehension.parse.Parser;
-import com.jojos.home.addresscomprehension.util.Util;
-import com.jojos.home.addresscomprehension.values.Address;
 import com.jojos.home.addresscomprehension.values.Company;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.sql.SQLException;
-import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A runnable class representing the elements of execution.
- * Downloading, parsing and storing are defined here
+ * Feeds the page of a company to the {@link Pipeline} where it's downloaded, parsed and stored
  *
  * Created by karanikasg@gmail.com.
  */
-public class SchedulerTask implements Runnable {
+public class SchedulerTask implements AsyncTask {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final Company company;
     private final File downloadDirectory;
-    private final Database database;
-    private final Email email;
+    private final Pipeline pipeline;
 
-    private SchedulerTask(Company company, File downloadDirectory, Database database, Email email) {
+    private SchedulerTask(Company company, File downloadDirectory, Pipeline pipeline) {
         this.company = company;
         this.downloadDirectory = downloadDirectory;
-        this.database = database;
-        this.email = email;
+        this.pipeline = pipeline;
     }
 
-    public static SchedulerTask of(Company company, File downloadDirectory, Database database, Email email) {
-        return new SchedulerTask(company, downloadDirectory, database, email);
+    /**
+     * @param company the company to download and parse
+     * @param downloadDirectory where the content is downloaded
+     * @param pipeline downloads, parses, stores and reports the content of the company
+     * @return a new task
+     */
+    public static SchedulerTask of(Company company, File downloadDirectory, Pipeline pipeline) {
+        return new SchedulerTask(company, downloadDirectory, pipeline);
     }
 
+    /**
+     * Feed the page of the company to the pipeline without waiting for it, each stage of the pipeline
+     * runs on threads of its own.
+     * @return a future completed once the page went through the pipeline
+     */
     @Override
-    public void run() {
+    public CompletableFuture<Void> start() {
         log.info("running for {} ", company);
-        DefaultDownloaderCtx downloaderCtx = null;
         try {
             // todo: perhaps implement a way to register a downloader to a specific company
 
-            // download first
-            downloaderCtx = new DefaultDownloaderCtx(downloadDirectory, company.getUrl());
-            Downloader<DefaultDownloaderCtx, DownloadResult> downloader = DefaultDownloader.instance;
-            DownloadResult downloadResult = downloader.download(downloaderCtx);
-
-            // then extract the content if downloading succeeded
-            if (downloadResult.isSuccess()) {
-                List<Parser> registeredParsers = company.getRegisteredParsers();
-
-                for (Parser parser : registeredParsers) {
-                    try {
-                        List<Address> addresses = parser.extractAddressesFromFile(downloaderCtx.getDownloadFile(), company, Optional.empty());
-
-                        if (addresses != null && !addresses.isEmpty()) {
-                            try {
-                                // insert the addresses. the underlying code will make sure that the companies are also updated if needed
-                                if (database.insertAddresses(addresses)) {
-                                    email.dispatch(addresses);
-                                } else {
-                                    log.info("No address update was necessary for " + Util.toString(addresses, Address::getValue));
-                                }
-                            } catch (SQLException | ApplicationException | MalformedURLException e) {
-                                log.error("Cannot save {} in the database.", Util.toString(addresses, Address::toString));
-                                e.printStackTrace();
-                            }
-
-                        }
-                    } catch (IOException e) {
-                        log.error("Error while extracting address from file {}", downloaderCtx.getDownloadFile());
-                    }
-                }
-
-            } else {    // nothing to extract/parse on download failure. log the error and move on
-                log.error("Downloading {} failed with reason {}",
-                        company.toString(), downloadResult.getErrorMessage());
-            }
-
+            // the download file is only written for those who want to keep it, the content is parsed in memory
+            DefaultDownloaderCtx downloaderCtx = new DefaultDownloaderCtx(downloadDirectory, company);
+            return pipeline.submit(company, downloaderCtx);
         } catch (Exception e) {
             //our last resort exception catch
             log.error("something fucked up");
             e.printStackTrace();
-        } finally {
-            if (downloaderCtx != null && !company.isRetainDownloadData()) {
-                downloaderCtx.cleanUp();
-            }
+            return CompletableFuture.completedFuture(null);
         }
     }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.exec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stage of the {@link Pipeline}: a fixed number of threads fed through a bounded hand-off queue.
+ *
+ * Handing work to a stage whose queue is full blocks the handing thread until there is room,
+ * so a slow stage holds back the stages before it instead of buffering without limit.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class Stage implements Executor {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param name the name of the stage, its threads are named after it
+     * @param threads the number of threads of the stage
+     * @param queueCapacity the number of items that can wait for a thread of the stage
+     */
+    public Stage(String name, int threads, int queueCapacity) {
+        this.name = name;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, name + "-" + threadNumber.incrementAndGet()),
+                (runnable, rejectingExecutor) -> {
+                    if (rejectingExecutor.isShutdown()) {
+                        throw new RejectedExecutionException("Stage " + name + " is shut down");
+                    }
+                    try {
+                        rejectingExecutor.getQueue().put(runnable);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                });
+        log.info("Stage {} running on {} threads, {} items can wait", name, threads, queueCapacity);
+    }
+
+    /**
+     * Hand the work to the stage, blocking while its queue is full.
+     */
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stop accepting work, what's already handed over is still done.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Stage{" +
+                "name='" + name + '\'' +
+                ", active=" + executor.getActiveCount() +
+                ", queued=" + executor.getQueue().size() +
+                '}';
+    }
+}
@@ -16,17 +16,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -43,27 +40,17 @@ public class DefaultParser implements Parser {
     // TODO: more illegal strings here. should deprecated this in the future
     private static final Set<String> ILLEGAL_CHARSEQS = new HashSet<>(Arrays.asList("<br>"));
 
-    private final Pattern pattern;
+    // the street keywords come first, see STREET_KEYWORDS
+    private static final KeywordAutomaton KEYWORDS =
+            new KeywordAutomaton("straße", "strasse", "deutschland", "berlin");
+    private static final int STREET_KEYWORDS = 2;
 
-    public DefaultParser() {
-        pattern = Pattern.compile(".*(\\b\\p{L}+\\s?(?:[Ss]traße|[Ss]trasse)\\b.*(?:Deutschland|berlin))(.*)", Pattern.CASE_INSENSITIVE);
-    }
     @Override
     public List<Address> extractAddressesFromString(String page, Company company, Optional<ParserCtx> parserCtx) {
         log.info("Parsing {}", company.getUrlStr());
         page = normalize(page);
         List<Address> addresses = new ArrayList<>();
-        List<String> values = new ArrayList<>();
-
-        String remaining = page;
-
-        while (remaining != null && !remaining.isEmpty()) {
-            CurrentMatchAndRemainingStr curAndRemain = matchStr(remaining);
-            if (curAndRemain.isMatched) {
-                values.add(curAndRemain.current);
-            }
-            remaining = curAndRemain.remaining;
-        }
+        List<String> values = findAddresses(page);
 
         if (!values.isEmpty()) {
             // if the address found in this run didn't match what have found in the past
@@ -85,27 +72,38 @@ public class DefaultParser implements Parser {
     @Override
     public List<Address> extractAddressesFromFile(File file, Company company, Optional<ParserCtx> parserCtx)
             throws IOException {
-        List<Address> addresses = new ArrayList<>();
-        Map<Integer, String> values = new HashMap<>();
-        int ordinal = 1;
+        Document document = Jsoup.parse(file,
+                parserCtx.flatMap(ParserCtx::getCharset).orElse(StandardCharsets.UTF_8).name());
+        return extractAddressesFromDocument(document, company);
+    }
+
+    @Override
+    public List<Address> extractAddressesFromHtml(String html, Company company, Optional<ParserCtx> parserCtx) {
+        Document document = Jsoup.parse(html);
+        return extractAddressesFromDocument(document, company);
+    }
 
-        Document document = Jsoup.parse(file, "UTF-8");
+    private List<Address> extractAddressesFromDocument(Document document, Company company) {
+        List<String> values = new ArrayList<>();
         Elements elements = document.select("p");
 
         for (Element element : elements) {
-            String remaining = element.text();
-//            System.out.println(remaining);
-
-            while (remaining != null && !remaining.isEmpty()) {
-                CurrentMatchAndRemainingStr curAndRemain = matchStr(remaining);
-                if (curAndRemain.isMatched) {
-                    values.put(ordinal++, curAndRemain.current);
-                }
-                remaining = curAndRemain.remaining;
-            }
-
+            values.addAll(findAddresses(element.text()));
         }
 
+        List<Address> addresses = toAddresses(values, company);
+        log.info("Company {} Parsed addresses {}", company.getUrlStr(), Util.toString(addresses, Address::getValue));
+        return addresses;
+    }
+
+    /**
+     * Create the addresses of the company, numbering them in the order they were found.
+     * @param values the addresses found
+     * @param company the company the addresses belong to
+     * @return the addresses or an empty list if none was found.
+     */
+    static List<Address> toAddresses(List<String> values, Company company) {
+        List<Address> addresses = new ArrayList<>();
         if (!values.isEmpty()) {
             // if the address found in this run didn't match what have found in the past
             // clone the company with different address count and user that for the addresses.
@@ -113,13 +111,11 @@ public class DefaultParser implements Parser {
                 company = company.cloneWith(values.size());
             }
             LocalDateTime dateTime = LocalDateTime.now();
-            for (Map.Entry<Integer, String> entry : values.entrySet()) {
-                Address address = new Address(entry.getValue(), dateTime, company, entry.getKey());
+            for (int i = 0; i < values.size(); i++) {
+                Address address = new Address(values.get(i), dateTime, company, i + 1);
                 addresses.add(address);
             }
         }
-
-        log.info("Company {} Parsed addresses {}", company.getUrlStr(), Util.toString(addresses, Address::getValue));
         return addresses;
     }
 
@@ -139,29 +135,86 @@ public class DefaultParser implements Parser {
         return text;
     }
 
-    private CurrentMatchAndRemainingStr matchStr(String str) {
-        Matcher matcher = pattern.matcher(str);
-        String match = "";
-        String remaining = "";
-        if (matcher.matches()) {
-            match = matcher.group(1);
-            remaining = matcher.group(2);
+    /**
+     * Scans the text for an address, in a single pass over the text.
+     *
+     * The address is the one the former {@code .*(\b\p{L}+\s?(?:straße|strasse)\b.*(?:Deutschland|berlin))(.*)}
+     * pattern matched: it ends with the last "Deutschland" or "berlin" word of the text and starts with the name of
+     * the last street in front of it. The street and the city keywords are looked up in one pass, so unlike
+     * the pattern, which backtracked over the whole text, the scan is linear in the length of the text.
+     * @param text the text to scan
+     * @return the address found, if any. There is at most one address in a text.
+     */
+    List<String> findAddresses(String text) {
+        List<String> values = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return values;
         }
 
-        return new CurrentMatchAndRemainingStr(match, remaining);
+        List<int[]> streets = new ArrayList<>();
+        int[] city = {-1, -1};
+        KEYWORDS.scan(text, (keyword, start, end) -> {
+            // both keywords end a word, not the "Berlin" of a "Berliner Straße"
+            if (!isWordEnd(text, end)) {
+                return;
+            }
+            if (keyword < STREET_KEYWORDS) {
+                streets.add(new int[]{start, end});
+            } else {
+                city[0] = start;
+                city[1] = end;
+            }
+        });
+        if (city[0] < 0) {
+            return values;
+        }
+        for (int i = streets.size() - 1; i >= 0; i--) {
+            int[] street = streets.get(i);
+            if (street[1] > city[0]) {
+                continue;
+            }
+            int nameStart = streetNameStart(text, street[0]);
+            if (nameStart >= 0) {
+                values.add(text.substring(nameStart, city[1]));
+                break;
+            }
+        }
+        return values;
     }
 
+    /**
+     * The name of a street is a word right in front of the street keyword, or separated from it by a whitespace.
+     * @param text the text the street is in
+     * @param keywordStart the index of the street keyword
+     * @return the index of the first letter of the name, or -1 if there is no name in front of the keyword
+     */
+    private static int streetNameStart(String text, int keywordStart) {
+        int nameEnd = keywordStart;
+        if (nameEnd > 0 && isWhitespace(text.charAt(nameEnd - 1))) {
+            nameEnd--;
+        }
+        int nameStart = nameEnd;
+        while (nameStart > 0 && Character.isLetter(text.charAt(nameStart - 1))) {
+            nameStart--;
+        }
+        // the name has to start a word
+        if (nameStart == nameEnd || (nameStart > 0 && isWordCharacter(text.charAt(nameStart - 1)))) {
+            return -1;
+        }
+        return nameStart;
+    }
 
-    private final class CurrentMatchAndRemainingStr {
-        private final String current;
-        private final String remaining;
-        private final boolean isMatched;
+    private static boolean isWordEnd(String text, int end) {
+        return end == text.length() || !isWordCharacter(text.charAt(end));
+    }
 
-        private CurrentMatchAndRemainingStr(String current, String remaining) {
-            this.current = current;
-            this.isMatched = (current != null && !current.isEmpty());
-            this.remaining = remaining;
-        }
+    // same as the \b of a pattern
+    private static boolean isWordCharacter(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
 
+    // same as the \s of a pattern
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 }
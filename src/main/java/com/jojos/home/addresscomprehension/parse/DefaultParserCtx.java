@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import java.nio.charset.Charset;
+import java.util.Optional;
+
+/**
+ * The context of a page downloaded by the application, which knows the charset of the page.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class DefaultParserCtx implements ParserCtx {
+
+    private final Charset charset;
+
+    public DefaultParserCtx(Charset charset) {
+        this.charset = charset;
+    }
+
+    @Override
+    public void downloadContent() {
+        // the page is downloaded already
+    }
+
+    @Override
+    public Optional<Charset> getCharset() {
+        return Optional.of(charset);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton finding all occurrences of a fixed set of keywords in a single pass over a text.
+ *
+ * Matching is case-insensitive, characters are compared in lower case. The capital sharp s (ẞ) lower-cases
+ * to ß, so "STRAẞE", "Straße" and "straße" are the same keyword.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class KeywordAutomaton {
+
+    /**
+     * Called for every keyword occurrence, in the order they end in the text.
+     */
+    @FunctionalInterface
+    interface HitListener {
+        /**
+         * @param keyword the index of the keyword found, in the order the keywords were given
+         * @param start the index of the first character of the occurrence
+         * @param end the index after the last character of the occurrence
+         */
+        void onHit(int keyword, int start, int end);
+    }
+
+    private static final int ROOT = 0;
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<Integer> failures = new ArrayList<>();
+    // the keywords recognized at each state, including the ones recognized through the failure links
+    private final List<List<Integer>> outputs = new ArrayList<>();
+    private final int[] keywordLengths;
+
+    KeywordAutomaton(String... keywords) {
+        keywordLengths = new int[keywords.length];
+        newState();
+        for (int keyword = 0; keyword < keywords.length; keyword++) {
+            String lowerCase = keywords[keyword].toLowerCase();
+            keywordLengths[keyword] = lowerCase.length();
+            int state = ROOT;
+            for (int i = 0; i < lowerCase.length(); i++) {
+                char c = lowerCase.charAt(i);
+                Integer next = transitions.get(state).get(c);
+                if (next == null) {
+                    next = newState();
+                    transitions.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(keyword);
+        }
+        buildFailures();
+    }
+
+    private int newState() {
+        transitions.add(new HashMap<>());
+        failures.add(ROOT);
+        outputs.add(new ArrayList<>(1));
+        return transitions.size() - 1;
+    }
+
+    private void buildFailures() {
+        // breadth first, so that the failure of a state is always computed before the states below it
+        Queue<Integer> queue = new ArrayDeque<>(transitions.get(ROOT).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+                int child = transition.getValue();
+                int failure = next(failures.get(state), transition.getKey());
+                failures.set(child, failure);
+                outputs.get(child).addAll(outputs.get(failure));
+                queue.add(child);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            Integer next = transitions.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failures.get(state);
+        }
+    }
+
+    /**
+     * Scan the text once reporting every keyword occurrence.
+     * @param text the text to scan
+     * @param listener called for every occurrence found
+     */
+    void scan(CharSequence text, HitListener listener) {
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            for (int keyword : outputs.get(state)) {
+                listener.onHit(keyword, i + 1 - keywordLengths[keyword], i + 1);
+            }
+        }
+    }
+}
@@ -30,4 +30,9 @@ public class MockParser implements Parser {
         // Never return a null.
         return new ArrayList<>();
     }
+
+    @Override
+    public List<Address> extractAddressesFromHtml(String html, Company company, Optional<ParserCtx> parserCtx) {
+        return new ArrayList<>();
+    }
 }
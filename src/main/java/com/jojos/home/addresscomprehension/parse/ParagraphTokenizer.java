@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * An incremental HTML tokenizer emitting the text of every {@code p} element as soon as the element ends.
+ *
+ * The input is read in chunks and no tree is built, the only state kept is the text of the current paragraph
+ * (capped to {@link #MAX_PARAGRAPH_LENGTH} characters) and the name of the current tag.
+ * The text is whitespace normalized the same way as Jsoup's {@code Element.text()}: runs of whitespace collapse
+ * to a single space, the text is trimmed and {@code br} counts as whitespace.
+ * A paragraph ends with its end tag, with the start of another block element or with the end of its container,
+ * which is how browsers close a paragraph with an omitted end tag.
+ *
+ * This is not a full HTML5 tokenizer, it knows just enough to get the paragraph text out of a page:
+ * comments, declarations and the contents of {@code script} and {@code style} are skipped
+ * and the most common character references are decoded, the legacy ones even without their closing {@code ;}.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+class ParagraphTokenizer {
+    private static final Logger log = LoggerFactory.getLogger(ParagraphTokenizer.class);
+
+    // the max number of characters of paragraph text kept, anything after that is dropped
+    static final int MAX_PARAGRAPH_LENGTH = 64 * 1024;
+    private static final int MAX_TAG_NAME_LENGTH = 32;
+    private static final int MAX_CHARACTER_REFERENCE_LENGTH = 10;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // elements whose start or end closes an open paragraph
+    private static final Set<String> PARAGRAPH_CLOSERS = new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "body", "dd", "div", "dl", "dt", "fieldset", "figure",
+            "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "html", "li", "main", "nav",
+            "ol", "p", "pre", "section", "table", "td", "th", "tr", "ul"));
+    // elements whose contents are not text
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<>(Arrays.asList("script", "style"));
+
+    // the Latin-1 references, in the order of their characters starting from U+00A0
+    private static final String[] LATIN_1_REFERENCES = {
+            "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect",
+            "uml", "copy", "ordf", "laquo", "not", "shy", "reg", "macr",
+            "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot",
+            "cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest",
+            "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil",
+            "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml",
+            "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times",
+            "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig",
+            "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil",
+            "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml",
+            "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide",
+            "oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml"};
+
+    private static final Map<String, Character> CHARACTER_REFERENCES = new HashMap<>();
+    // the references also decoded without the closing ';', like Jsoup and the browsers do for legacy pages
+    private static final Set<String> LEGACY_CHARACTER_REFERENCES = new HashSet<>();
+    static {
+        CHARACTER_REFERENCES.put("amp", '&');
+        CHARACTER_REFERENCES.put("lt", '<');
+        CHARACTER_REFERENCES.put("gt", '>');
+        CHARACTER_REFERENCES.put("quot", '"');
+        LEGACY_CHARACTER_REFERENCES.addAll(CHARACTER_REFERENCES.keySet());
+        for (int i = 0; i < LATIN_1_REFERENCES.length; i++) {
+            CHARACTER_REFERENCES.put(LATIN_1_REFERENCES[i], (char) ('\u00a0' + i));
+            LEGACY_CHARACTER_REFERENCES.add(LATIN_1_REFERENCES[i]);
+        }
+        CHARACTER_REFERENCES.put("apos", '\'');
+        CHARACTER_REFERENCES.put("ndash", '–');
+        CHARACTER_REFERENCES.put("mdash", '—');
+    }
+
+    private enum State {
+        TEXT,
+        // right after a '<'
+        TAG_OPEN,
+        // in the name of a start or end tag
+        TAG_NAME,
+        // in a tag after its name, until the closing '>'
+        TAG_ATTRIBUTES,
+        // right after "<!"
+        MARKUP_DECLARATION,
+        COMMENT,
+        // a declaration or processing instruction, skipped until the closing '>'
+        BOGUS_COMMENT,
+        // in the contents of a raw text element, until its end tag
+        RAW_TEXT,
+        // right after a '&'
+        CHARACTER_REFERENCE
+    }
+
+    private final Consumer<String> paragraphConsumer;
+
+    private State state = State.TEXT;
+    private final StringBuilder paragraph = new StringBuilder();
+    private boolean inParagraph;
+    private boolean pendingSpace;
+    private boolean truncated;
+
+    private final StringBuilder tagName = new StringBuilder();
+    private boolean endTag;
+    private char quote;
+    private final StringBuilder markup = new StringBuilder();
+    private String rawTextEndTag;
+    private final StringBuilder characterReference = new StringBuilder();
+
+    /**
+     * @param paragraphConsumer called with the normalized text of every non empty paragraph, in document order
+     */
+    ParagraphTokenizer(Consumer<String> paragraphConsumer) {
+        this.paragraphConsumer = paragraphConsumer;
+    }
+
+    /**
+     * Tokenize everything the reader provides. The reader is not closed.
+     * @param reader the HTML to tokenize
+     * @throws IOException if the reader fails
+     */
+    void tokenize(Reader reader) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                accept(buffer[i]);
+            }
+        }
+        if (state == State.CHARACTER_REFERENCE) {
+            endCharacterReference();
+        }
+        closeParagraph();
+    }
+
+    private void accept(char c) {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    state = State.TAG_OPEN;
+                } else if (c == '&') {
+                    characterReference.setLength(0);
+                    state = State.CHARACTER_REFERENCE;
+                } else {
+                    appendText(c);
+                }
+                break;
+            case TAG_OPEN:
+                tagName.setLength(0);
+                if (c == '/') {
+                    endTag = true;
+                    state = State.TAG_NAME;
+                } else if (Character.isLetter(c)) {
+                    endTag = false;
+                    tagName.append(Character.toLowerCase(c));
+                    state = State.TAG_NAME;
+                } else if (c == '!') {
+                    markup.setLength(0);
+                    state = State.MARKUP_DECLARATION;
+                } else if (c == '?') {
+                    state = State.BOGUS_COMMENT;
+                } else {
+                    // not a tag after all
+                    state = State.TEXT;
+                    appendText('<');
+                    accept(c);
+                }
+                break;
+            case TAG_NAME:
+                if (c == '>') {
+                    endOfTag();
+                } else if (Character.isWhitespace(c) || c == '/') {
+                    state = State.TAG_ATTRIBUTES;
+                } else if (tagName.length() < MAX_TAG_NAME_LENGTH) {
+                    tagName.append(Character.toLowerCase(c));
+                }
+                break;
+            case TAG_ATTRIBUTES:
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    endOfTag();
+                }
+                break;
+            case MARKUP_DECLARATION:
+                markup.append(c);
+                if (markup.length() == 2) {
+                    if (markup.charAt(0) == '-' && markup.charAt(1) == '-') {
+                        markup.setLength(0);
+                        state = State.COMMENT;
+                    } else {
+                        state = State.BOGUS_COMMENT;
+                    }
+                } else if (c == '>') {
+                    state = State.TEXT;
+                }
+                break;
+            case COMMENT:
+                // the markup holds the last two characters of the comment
+                if (c == '>' && markup.length() == 2 && markup.charAt(0) == '-' && markup.charAt(1) == '-') {
+                    state = State.TEXT;
+                } else {
+                    if (markup.length() == 2) {
+                        markup.deleteCharAt(0);
+                    }
+                    markup.append(c);
+                }
+                break;
+            case BOGUS_COMMENT:
+                if (c == '>') {
+                    state = State.TEXT;
+                }
+                break;
+            case RAW_TEXT:
+                // the markup holds the tail of the contents that could be the start of the end tag
+                markup.append(Character.toLowerCase(c));
+                if (!rawTextEndTag.startsWith(markup.toString())) {
+                    markup.setLength(0);
+                    if (c == '<') {
+                        markup.append(c);
+                    }
+                } else if (markup.length() == rawTextEndTag.length()) {
+                    markup.setLength(0);
+                    state = State.TAG_ATTRIBUTES;
+                    // the end tag of the raw text element doesn't affect paragraphs
+                    tagName.setLength(0);
+                    endTag = true;
+                }
+                break;
+            case CHARACTER_REFERENCE:
+                if (c == ';') {
+                    decodeCharacterReference();
+                    state = State.TEXT;
+                } else if ((Character.isLetterOrDigit(c) || c == '#')
+                        && characterReference.length() < MAX_CHARACTER_REFERENCE_LENGTH) {
+                    characterReference.append(c);
+                } else {
+                    endCharacterReference();
+                    state = State.TEXT;
+                    accept(c);
+                }
+                break;
+        }
+    }
+
+    private void endOfTag() {
+        quote = 0;
+        state = State.TEXT;
+        String name = tagName.toString();
+        if (!endTag && RAW_TEXT_ELEMENTS.contains(name)) {
+            rawTextEndTag = "</" + name;
+            markup.setLength(0);
+            state = State.RAW_TEXT;
+        } else if (name.equals("br")) {
+            pendingSpace = true;
+        } else if (PARAGRAPH_CLOSERS.contains(name)) {
+            closeParagraph();
+            if (!endTag && name.equals("p")) {
+                inParagraph = true;
+            }
+        }
+    }
+
+    private void decodeCharacterReference() {
+        String reference = characterReference.toString();
+        Character decoded = CHARACTER_REFERENCES.get(reference);
+        if (decoded != null) {
+            appendText(decoded);
+            return;
+        }
+        if (reference.length() > 1 && reference.charAt(0) == '#') {
+            try {
+                int codePoint = reference.charAt(1) == 'x' || reference.charAt(1) == 'X'
+                        ? Integer.parseInt(reference.substring(2), 16)
+                        : Integer.parseInt(reference.substring(1));
+                for (char c : Character.toChars(codePoint)) {
+                    appendText(c);
+                }
+                return;
+            } catch (IllegalArgumentException e) {
+                // not a valid code point, keep it as is
+            }
+        }
+        flushCharacterReference();
+        appendText(';');
+    }
+
+    /**
+     * A reference ended without a ';', only the legacy ones are decoded, the rest is kept as is.
+     */
+    private void endCharacterReference() {
+        String reference = characterReference.toString();
+        if (LEGACY_CHARACTER_REFERENCES.contains(reference)) {
+            appendText(CHARACTER_REFERENCES.get(reference));
+        } else {
+            flushCharacterReference();
+        }
+    }
+
+    private void flushCharacterReference() {
+        appendText('&');
+        for (int i = 0; i < characterReference.length(); i++) {
+            appendText(characterReference.charAt(i));
+        }
+    }
+
+    private void appendText(char c) {
+        if (!inParagraph) {
+            return;
+        }
+        if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+            pendingSpace = true;
+            return;
+        }
+        if (paragraph.length() >= MAX_PARAGRAPH_LENGTH) {
+            if (!truncated) {
+                log.debug("Paragraph longer than {} characters, the rest is dropped", MAX_PARAGRAPH_LENGTH);
+                truncated = true;
+            }
+            return;
+        }
+        if (pendingSpace && paragraph.length() > 0) {
+            paragraph.append(' ');
+        }
+        pendingSpace = false;
+        paragraph.append(c);
+    }
+
+    private void closeParagraph() {
+        if (inParagraph && paragraph.length() > 0) {
+            paragraphConsumer.accept(paragraph.toString());
+        }
+        inParagraph = false;
+        pendingSpace = false;
+        truncated = false;
+        paragraph.setLength(0);
+    }
+}
@@ -9,6 +9,9 @@ import com.jojos.home.addresscomprehension.values.Company;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,11 +37,36 @@ public interface Parser {
      * @implNote never return a null {@link List}, always return an empty collection in case nothing is found
      * @param file the file from which the addresses shall be extracted from
      * @param company the company we are referring to
-     * @param parserCtx optional context which encapsulates additional information.
+     * @param parserCtx optional context which encapsulates additional information, like the charset of the file.
+     *                  UTF-8 if it's not given.
      * @return a list of addresses found or an empty list if nothing was found. NEVER return a null value.
      * @throws IOException
      */
     List<Address> extractAddressesFromFile(File file, Company company, Optional<ParserCtx> parserCtx)
             throws IOException;
 
+    /**
+     * Interface method to extract all addresses from a downloaded HTML page held in memory.
+     * The page is handled the same way as the contents of a file passed to
+     * {@link #extractAddressesFromFile(File, Company, Optional)}.
+     * @implNote the default implementation writes the page to a temporary file and extracts the addresses from it.
+     * Implementors should override it to parse the page directly.
+     * @param html the HTML page from which the addresses shall be extracted from
+     * @param company the company we are referring to
+     * @param parserCtx optional context which encapsulates additional information.
+     * @return a list of addresses found or an empty list if nothing was found. NEVER return a null value.
+     * @throws IOException
+     */
+    default List<Address> extractAddressesFromHtml(String html, Company company, Optional<ParserCtx> parserCtx)
+            throws IOException {
+        Path file = Files.createTempFile("page", ".html");
+        try {
+            Files.write(file, html.getBytes(StandardCharsets.UTF_8));
+            return extractAddressesFromFile(file.toFile(), company,
+                    Optional.of(new DefaultParserCtx(StandardCharsets.UTF_8)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
 }
@@ -4,12 +4,24 @@
 
 package com.jojos.home.addresscomprehension.parse;
 
+import java.nio.charset.Charset;
+import java.util.Optional;
+
 /**
- * todo: create javadoc
+ * Additional information about the page to parse.
  * <p>
  * Created by karanikasg@gmail.com.
  */
 public interface ParserCtx {
 
     void downloadContent();
+
+    /**
+     * @return the charset to decode the file of the page with, as resolved when the page was downloaded.
+     * When empty the file is decoded as UTF-8.
+     * Only relevant to the pages parsed from a file, a page in a {@link String} is already decoded.
+     */
+    default Optional<Charset> getCharset() {
+        return Optional.empty();
+    }
 }
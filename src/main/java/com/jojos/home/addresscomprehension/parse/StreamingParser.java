@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import com.jojos.home.addresscomprehension.util.Util;
+import com.jojos.home.addresscomprehension.values.Address;
+import com.jojos.home.addresscomprehension.values.Company;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A parser streaming the page through a {@link ParagraphTokenizer} instead of building its DOM.
+ *
+ * It finds the same addresses as the {@link DefaultParser} in the text of the {@code p} elements,
+ * but the memory it needs is bounded by the size of the largest paragraph rather than the size of the page.
+ * Register it for a company by its class name.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class StreamingParser implements Parser {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final DefaultParser addressFinder = new DefaultParser();
+
+    /**
+     * The string is plain text rather than HTML, there are no paragraphs to stream through.
+     * It's scanned as a whole, the same as the {@link DefaultParser} does.
+     */
+    @Override
+    public List<Address> extractAddressesFromString(String page, Company company, Optional<ParserCtx> parserCtx) {
+        return addressFinder.extractAddressesFromString(page, company, parserCtx);
+    }
+
+    @Override
+    public List<Address> extractAddressesFromHtml(String html, Company company, Optional<ParserCtx> parserCtx)
+            throws IOException {
+        return extractAddresses(new StringReader(html), company);
+    }
+
+    @Override
+    public List<Address> extractAddressesFromFile(File file, Company company, Optional<ParserCtx> parserCtx)
+            throws IOException {
+        // not Files.newBufferedReader, whose decoder fails on the first byte not matching the charset. A page
+        // labelled with the wrong charset is decoded with replacement characters instead, the same as Jsoup does
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()),
+                parserCtx.flatMap(ParserCtx::getCharset).orElse(StandardCharsets.UTF_8)))) {
+            return extractAddresses(reader, company);
+        }
+    }
+
+    private List<Address> extractAddresses(Reader reader, Company company) throws IOException {
+        log.info("Parsing {}", company.getUrlStr());
+        List<String> values = new ArrayList<>();
+
+        new ParagraphTokenizer(paragraph -> values.addAll(addressFinder.findAddresses(paragraph))).tokenize(reader);
+
+        List<Address> addresses = DefaultParser.toAddresses(values, company);
+        log.info("Company {} Parsed addresses {}", company.getUrlStr(), Util.toString(addresses, Address::getValue));
+        return addresses;
+    }
+}
@@ -93,6 +93,18 @@ public class Util {
                         suffix.orElse("}")));
     }
 
+    /**
+     * @param bytes the bytes to convert
+     * @return the bytes as a lower case hex string, two characters per byte
+     */
+    public static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     public static String getTodaysDate() {
         Date date = new Date();
         SimpleDateFormat sdf = new SimpleDateFormat("YYYYMMdd-HHmmss");
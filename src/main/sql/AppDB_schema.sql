@@ -9,6 +9,8 @@ CREATE TABLE COMPANIES
 ALTER TABLE COMPANIES
 ADD CONSTRAINT COMPANIES_PK Primary Key (ID);
 
+CREATE INDEX COMPANIES_URL_IDX ON COMPANIES (URL);
+
 CREATE TABLE ADDRESSES
 (
   ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),
@@ -24,3 +26,5 @@ ADD CONSTRAINT ADDRESSES_PK Primary Key (ID);
 ALTER TABLE ADDRESSES
 ADD CONSTRAINT COMPANIES_FK1 Foreign Key (COMPANY_ID)
 REFERENCES COMPANIES (ID);
+
+CREATE INDEX ADDRESSES_ADDRESS_IDX ON ADDRESSES (ADDRESS);
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test class for {@link BoundedCache}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class BoundedCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        Map<Integer, String> evicted = new HashMap<>();
+        BoundedCache<Integer, String> cache = new BoundedCache<>(2, 0, evicted::put);
+
+        cache.put(1, "one");
+        cache.put(2, "two");
+        // touch 1 so that 2 becomes the least recently used
+        Assert.assertEquals("one", cache.get(1));
+        cache.put(3, "three");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals("one", cache.get(1));
+        Assert.assertEquals("three", cache.get(3));
+        Assert.assertEquals(1, evicted.size());
+        Assert.assertEquals("two", evicted.get(2));
+
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testExpiredEntriesAreEvicted() throws InterruptedException {
+        Map<Integer, String> evicted = new HashMap<>();
+        BoundedCache<Integer, String> cache = new BoundedCache<>(10, 1, evicted::put);
+
+        cache.put(1, "one");
+        Assert.assertEquals("one", cache.get(1));
+
+        Thread.sleep(1100);
+
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals("one", evicted.get(1));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testPutReturnsPreviousValue() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(10, 0, (key, value) -> {});
+
+        Assert.assertNull(cache.put(1, "one"));
+        Assert.assertEquals("one", cache.put(1, "uno"));
+        Assert.assertEquals("uno", cache.get(1));
+        Assert.assertEquals(0, cache.getEvictions());
+    }
+}
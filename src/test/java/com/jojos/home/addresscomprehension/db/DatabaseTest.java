@@ -17,9 +17,22 @@ import org.junit.runners.MethodSorters;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.jojos.home.addresscomprehension.db.DatabaseTestHelper.CompaniesAndAddresses;
@@ -133,6 +146,155 @@ public class DatabaseTest {
         test2InsertAndRetrieveCompaniesAndFewerAddresses();
     }
 
+    @Test
+    public void test5InsertLongValuesAndFindThemAgain() throws MalformedURLException {
+        StringBuilder url = new StringBuilder("http://www.example.com/impressum?");
+        while (url.length() < 2083) {
+            url.append("a");
+        }
+        Company company = new Company(url.toString(), Optional.of("Example"), false);
+        StringBuilder sb = new StringBuilder("Beispielstraße 1 10115 Berlin");
+        while (sb.length() < 1000) {
+            sb.append(" x");
+        }
+        Address address = new Address(sb.substring(0, 1000), LocalDateTime.now(), company);
+
+        try {
+            Assert.assertTrue("A new address must be inserted", database.insertAddresses(Collections.singleton(address)));
+            Assert.assertFalse("An already stored address must not be inserted again",
+                    database.insertAddresses(Collections.singleton(address)));
+        } catch (SQLException e) {
+            Assert.fail(String.format("Unexpected SQL exception. Error code %d, sql state '%s', message '%s'",
+                    e.getErrorCode(), e.getSQLState(), e.getMessage()));
+        } catch (ApplicationException e) {
+            Assert.fail(String.format("Unexpected Application exception. Message '%s'", e.getMessage()));
+        }
+    }
+
+    @Test
+    public void test6InsertSameAddressesConcurrently() throws MalformedURLException, InterruptedException {
+        Company company = new Company("http://www.example.org/kontakt", Optional.of("Concurrent"), 3);
+        List<Address> addresses = new ArrayList<>();
+        for (int ordinal = 1; ordinal <= 3; ordinal++) {
+            addresses.add(new Address("Parallelstraße " + ordinal + " 10115 Berlin", LocalDateTime.now(), company, ordinal));
+        }
+
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        AtomicInteger insertedCount = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            executorService.submit(() -> {
+                try {
+                    if (database.insertAddresses(addresses)) {
+                        insertedCount.incrementAndGet();
+                    }
+                } catch (SQLException | ApplicationException | MalformedURLException e) {
+                    failedCount.incrementAndGet();
+                }
+            });
+        }
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals("No insert should fail", 0, failedCount.get());
+        Assert.assertEquals("Only one of the threads should insert the addresses", 1, insertedCount.get());
+        try {
+            long stored = database.retrieveLatestAddresses().values().stream()
+                    .filter(address -> address.getValue().startsWith("Parallelstraße"))
+                    .count();
+            Assert.assertEquals("Each address must be stored once", addresses.size(), stored);
+        } catch (SQLException | ApplicationException e) {
+            Assert.fail(String.format("Unexpected exception. Message '%s'", e.getMessage()));
+        }
+    }
+
+    @Test
+    public void test7WriteBehindQueue() throws MalformedURLException, InterruptedException {
+        Company company = new Company("http://www.example.net/impressum", Optional.of("Write Behind"), false);
+        Address address = new Address("Warteschlangenstraße 7 10115 Berlin", LocalDateTime.now(), company);
+
+        WriteBehindQueue writeBehindQueue = new WriteBehindQueue(database, 10, 10);
+        CompletableFuture<Boolean> first = writeBehindQueue.submit(Collections.singleton(address));
+        CompletableFuture<Boolean> second = writeBehindQueue.submit(Collections.singleton(address));
+        try {
+            Assert.assertTrue("The first submission must insert the address", first.get(10, TimeUnit.SECONDS));
+            Assert.assertFalse("The second submission must find the address stored", second.get(10, TimeUnit.SECONDS));
+        } catch (ExecutionException | TimeoutException e) {
+            Assert.fail(String.format("Unexpected exception. Message '%s'", e.getMessage()));
+        } finally {
+            writeBehindQueue.stop(10);
+        }
+    }
+
+    @Test
+    public void test8LazyWarmUpFindsStoredAddresses() throws MalformedURLException {
+        Company company = new Company("http://www.example.org/impressum", Optional.of("Lazy Warm Up"), false);
+        Address address = new Address("Aufwärmstraße 8 10117 Berlin", LocalDateTime.now(), company);
+
+        Properties properties = new Properties();
+        properties.setProperty("db.cache.warmup", "lazy");
+        Database lazyDatabase = null;
+        try {
+            Assert.assertTrue("The address must be inserted", database.insertAddresses(Collections.singleton(address)));
+
+            // a second instance over the same database
+            lazyDatabase = new Database(dbName, properties);
+            Assert.assertTrue("Nothing should be cached before the first access",
+                    lazyDatabase.getCacheStatistics().startsWith("companies BoundedCache{size=0,"));
+            Assert.assertFalse("An already stored address must not be inserted again",
+                    lazyDatabase.insertAddresses(Collections.singleton(address)));
+        } catch (SQLException e) {
+            Assert.fail(String.format("Unexpected SQL exception. Error code %d, sql state '%s', message '%s'",
+                    e.getErrorCode(), e.getSQLState(), e.getMessage()));
+        } catch (ApplicationException e) {
+            Assert.fail(String.format("Unexpected Application exception. Message '%s'", e.getMessage()));
+        } finally {
+            // only close its connections, shutting it down would shut down the database of the other tests too
+            if (lazyDatabase != null) {
+                lazyDatabase.close();
+            }
+        }
+    }
+
+    @Test
+    public void test9WriteBehindQueueCompletesEverySubmission() throws MalformedURLException, InterruptedException {
+        Company company = new Company("http://www.example.net/kontakt", Optional.of("Write Behind Error"), false);
+        Address address = new Address("Fehlerstraße 9 10115 Berlin", LocalDateTime.now(), company);
+        // a submission making the writer fail with an error rather than an exception
+        List<Address> failing = new ArrayList<Address>() {
+            @Override
+            public Iterator<Address> iterator() {
+                throw new AssertionError("boom");
+            }
+        };
+
+        WriteBehindQueue writeBehindQueue = new WriteBehindQueue(database, 10, 10);
+        try {
+            assertCompletesExceptionally(writeBehindQueue.submit(failing));
+            // the writer is gone, nothing is going to be written anymore
+            assertCompletesExceptionally(writeBehindQueue.submit(Collections.singleton(address)));
+        } finally {
+            writeBehindQueue.stop(10);
+        }
+        assertCompletesExceptionally(writeBehindQueue.submit(Collections.singleton(address)));
+
+        WriteBehindQueue stopped = new WriteBehindQueue(database, 10, 10);
+        stopped.stop(10);
+        assertCompletesExceptionally(stopped.submit(Collections.singleton(address)));
+    }
+
+    private static void assertCompletesExceptionally(CompletableFuture<Boolean> future) throws InterruptedException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("The submission must not be written");
+        } catch (ExecutionException e) {
+            // expected
+        } catch (TimeoutException e) {
+            Assert.fail("The submission must be completed");
+        }
+    }
+
     @AfterClass
     public static void cleanUp() {
         database.shutdown();
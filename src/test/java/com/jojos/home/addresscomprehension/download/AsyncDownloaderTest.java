@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for {@link AsyncDownloader}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class AsyncDownloaderTest {
+
+    @Test
+    public void testLimitsDownloadsInFlight() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Map<String, AtomicInteger> inFlightPerHost = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxInFlightPerHost = new ConcurrentHashMap<>();
+
+        Downloader<DefaultDownloaderCtx, DownloadResult> slowDownloader = context -> {
+            String host = context.getUrl().getHost();
+            AtomicInteger hostInFlight = inFlightPerHost.computeIfAbsent(host, key -> new AtomicInteger());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            maxInFlightPerHost.computeIfAbsent(host, key -> new AtomicInteger())
+                    .accumulateAndGet(hostInFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            hostInFlight.decrementAndGet();
+            inFlight.decrementAndGet();
+            return DownloadResult.success(context.getUrl().toString());
+        };
+
+        AsyncDownloader downloader = new AsyncDownloader(slowDownloader, 8, 2, 4);
+        List<CompletableFuture<DownloadResult>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                URL url = new URL("http://host" + (i % 10) + ".example.com/impressum" + i);
+                results.add(downloader.downloadAsync(new DefaultDownloaderCtx(new File("download"), url, false)));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } finally {
+            downloader.shutdown();
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            DownloadResult result = results.get(i).get();
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertTrue(result.getContent().endsWith("/impressum" + i));
+        }
+        Assert.assertTrue("At most 8 downloads in flight, were " + maxInFlight.get(), maxInFlight.get() <= 8);
+        maxInFlightPerHost.forEach((host, max) ->
+                Assert.assertTrue("At most 2 downloads per host, were " + max.get() + " for " + host, max.get() <= 2));
+    }
+
+    @Test
+    public void testFailureOfTheDelegateIsAFailedResult() throws IOException {
+        AsyncDownloader downloader = new AsyncDownloader(context -> {
+            throw new IllegalStateException("boom");
+        }, 1, 1, 1);
+        try {
+            DownloadResult result = downloader.download(
+                    new DefaultDownloaderCtx(new File("download"), new URL("http://www.example.com"), false));
+            Assert.assertFalse(result.isSuccess());
+            Assert.assertEquals("boom", result.getErrorMessage());
+        } finally {
+            downloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncDownloader downloader = new AsyncDownloader(context -> calls.incrementAndGet() < 3
+                ? DownloadResult.fail("timeout")
+                : DownloadResult.success("<p>Ritterstraße 11 10969 Berlin</p>"),
+                1, 1, 1, new RetryPolicy(4, 10, 20), 10, 60_000);
+        try {
+            DownloadResult result = downloader.download(
+                    new DefaultDownloaderCtx(new File("download"), new URL("http://www.example.com"), false));
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertEquals(3, result.getAttempts());
+        } finally {
+            downloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedIsNotRetried() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncDownloader downloader = new AsyncDownloader(context -> {
+            calls.incrementAndGet();
+            return DownloadResult.rejected("not found");
+        }, 1, 1, 1, new RetryPolicy(4, 10, 20), 1, 60_000);
+        try {
+            URL url = new URL("http://www.example.com");
+            DownloadResult result = downloader.download(new DefaultDownloaderCtx(new File("download"), url, false));
+            Assert.assertEquals(DownloadResult.Status.REJECTED, result.getStatus());
+            Assert.assertEquals(1, calls.get());
+            Assert.assertEquals(CircuitBreaker.State.CLOSED, downloader.getCircuitState(url.getHost()));
+        } finally {
+            downloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testPageTooLargeIsNotRetried() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        AtomicInteger calls = new AtomicInteger();
+        Downloader<DefaultDownloaderCtx, DownloadResult> tooSmall = DefaultDownloader.instance.streamingToFile(16);
+        AsyncDownloader downloader = new AsyncDownloader(context -> {
+            calls.incrementAndGet();
+            return tooSmall.download(context);
+        }, 1, 1, 1, new RetryPolicy(4, 10, 20), 1, 60_000);
+        try {
+            URL url = page.toURI().toURL();
+            DownloadResult result = downloader.download(new DefaultDownloaderCtx(new File("download"), url, false));
+            Assert.assertEquals(DownloadResult.Status.REJECTED, result.getStatus());
+            Assert.assertEquals("A page too large must not be retried", 1, calls.get());
+            Assert.assertEquals("A page too large must not open the circuit",
+                    CircuitBreaker.State.CLOSED, downloader.getCircuitState(url.getHost()));
+        } finally {
+            downloader.shutdown();
+        }
+    }
+
+    @Test
+    public void testCircuitOpensForAFailingHost() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        AsyncDownloader downloader = new AsyncDownloader(context -> {
+            calls.incrementAndGet();
+            return DownloadResult.fail("connect timed out");
+        }, 1, 1, 1, new RetryPolicy(2, 1, 1), 3, 60_000);
+        try {
+            URL url = new URL("http://www.example.com");
+            Assert.assertEquals(2, downloader.download(new DefaultDownloaderCtx(new File("download"), url, false)).getAttempts());
+            // the breaker opens on the first attempt, not retried
+            DownloadResult opening = downloader.download(new DefaultDownloaderCtx(new File("download"), url, false));
+            Assert.assertEquals(DownloadResult.Status.FAILED, opening.getStatus());
+            Assert.assertEquals(1, opening.getAttempts());
+            Assert.assertEquals(CircuitBreaker.State.OPEN, downloader.getCircuitState(url.getHost()));
+
+            DownloadResult result = downloader.download(new DefaultDownloaderCtx(new File("download"), url, false));
+            Assert.assertEquals(DownloadResult.Status.CIRCUIT_OPEN, result.getStatus());
+            Assert.assertEquals("The host must not be tried once the circuit is open", 3, calls.get());
+        } finally {
+            downloader.shutdown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Test class for {@link CharsetDetector}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class CharsetDetectorTest {
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    @Test
+    public void testDefaultsToUtf8() throws IOException {
+        Assert.assertEquals(StandardCharsets.UTF_8, detect(Optional.of("text/html"), "<p>Ritterstraße</p>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testContentType() throws IOException {
+        Assert.assertEquals(WINDOWS_1252, detect(Optional.of("text/html; charset=ISO-8859-1"), new byte[0]));
+        Assert.assertEquals(StandardCharsets.UTF_8, detect(Optional.of("text/html;charset=\"utf-8\""), new byte[0]));
+        Assert.assertEquals("An unknown charset is ignored",
+                StandardCharsets.UTF_8, detect(Optional.of("text/html; charset=no-such-charset"), new byte[0]));
+    }
+
+    @Test
+    public void testMeta() throws IOException {
+        Assert.assertEquals(WINDOWS_1252, detect(Optional.empty(),
+                "<html><head><meta charset=\"iso-8859-1\"></head>".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals(WINDOWS_1252, detect(Optional.of("text/html"),
+                "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\" />".getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("The header wins over the meta element", StandardCharsets.UTF_8, detect(Optional.of("text/html; charset=utf-8"),
+                "<meta charset=\"iso-8859-1\">".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testByteOrderMarkIsSkipped() throws IOException {
+        byte[] page = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf, '<', 'p', '>'};
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(page));
+
+        Assert.assertEquals("The byte order mark wins over the header",
+                StandardCharsets.UTF_8, CharsetDetector.detect(Optional.of("text/html; charset=iso-8859-1"), in));
+        Assert.assertEquals('<', in.read());
+    }
+
+    private static Charset detect(Optional<String> contentType, byte[] page) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(page));
+        Charset charset = CharsetDetector.detect(contentType, in);
+        Assert.assertEquals("Nothing must be consumed", page.length > 0 ? page[0] & 0xff : -1, in.read());
+        return charset;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.download;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link CircuitBreaker}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterFailuresInARow() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60_000);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess();
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Assert.assertEquals("A success in between resets the failures", CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        Assert.assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testHalfOpenLetsASingleTrialThrough() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 10);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Thread.sleep(20);
+
+        Assert.assertTrue("The trial must go through", circuitBreaker.allowRequest());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertFalse("A single trial at a time", circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        Assert.assertEquals("A failed trial opens the breaker again", CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        Thread.sleep(20);
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.allowRequest());
+    }
+}
@@ -4,14 +4,27 @@
 
 package com.jojos.home.addresscomprehension.download;
 
+import com.jojos.home.addresscomprehension.values.Company;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Test class for {@link DefaultDownloader}.
@@ -45,6 +58,234 @@ public class DefaultDownloaderTest {
         Assert.assertTrue("File exists", !downloadCtx.getDownloadFile().exists());
     }
 
+    @Test
+    public void testDownloadWithoutWritingTheFile() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, page.toURI().toURL(), false);
+
+        DownloadResult downloadResult = DefaultDownloader.instance.download(downloadCtx);
+
+        Assert.assertTrue("Download result must be success", downloadResult.isSuccess());
+        Assert.assertEquals("<p>Ritterstraße 11 10969 Berlin</p>", downloadResult.getContent());
+        Assert.assertTrue("File must not be written", !downloadCtx.getDownloadFile().exists());
+    }
+
+    @Test
+    public void testCompaniesSharingTheUrlDoNotShareValidators() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        String url = page.toURI().toURL().toString();
+        DefaultDownloaderCtx firstCtx = new DefaultDownloaderCtx(downloadDirectory,
+                new Company(url, Optional.of("first"), false));
+        DefaultDownloaderCtx secondCtx = new DefaultDownloaderCtx(downloadDirectory,
+                new Company(url, Optional.of("second"), false));
+        Assert.assertNotEquals(firstCtx.getDownloadFile(), secondCtx.getDownloadFile());
+
+        DownloadResult first = DefaultDownloader.instance.download(firstCtx);
+        Assert.assertTrue("First download must be success", first.isSuccess());
+        firstCtx.storeValidators(first.getValidators().get());
+
+        Assert.assertTrue("Same content must not be modified for the same company",
+                DefaultDownloader.instance.download(firstCtx).isNotModified());
+        Assert.assertTrue("The other company must get the content",
+                DefaultDownloader.instance.download(secondCtx).isSuccess());
+
+        firstCtx.cleanUpValidators();
+    }
+
+    @Test
+    public void testUnchangedContentIsNotModified() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, page.toURI().toURL(), false);
+
+        DownloadResult first = DefaultDownloader.instance.download(downloadCtx);
+        Assert.assertTrue("First download must be success", first.isSuccess());
+        Assert.assertTrue("The content must be digested", first.getValidators().flatMap(Validators::getContentDigest).isPresent());
+        downloadCtx.storeValidators(first.getValidators().get());
+
+        DownloadResult unchanged = DefaultDownloader.instance.download(downloadCtx);
+        Assert.assertTrue("Same content must not be modified", unchanged.isNotModified());
+        Assert.assertEquals("The bytes transferred must be reported", first.getBytesReceived(), unchanged.getBytesReceived());
+        Assert.assertEquals(first.getBytesDecoded(), unchanged.getBytesDecoded());
+
+        FileUtils.writeStringToFile(page, "<p>Wallstraße 58 10179 Berlin</p>", StandardCharsets.UTF_8);
+        DownloadResult changed = DefaultDownloader.instance.download(downloadCtx);
+        Assert.assertTrue("Changed content must be success", changed.isSuccess());
+        Assert.assertEquals("<p>Wallstraße 58 10179 Berlin</p>", changed.getContent());
+
+        downloadCtx.cleanUpValidators();
+    }
+
+    @Test
+    public void testConditionalDownload() throws IOException {
+        byte[] page = "<p>Ritterstraße 11 10969 Berlin</p>".getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/impressum", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            } else {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, page.length);
+                exchange.getResponseBody().write(page);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/impressum");
+            DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, url, false);
+
+            DownloadResult first = DefaultDownloader.instance.download(downloadCtx);
+            Assert.assertTrue("First download must be success", first.isSuccess());
+            Assert.assertEquals(Optional.of("\"v1\""), first.getValidators().flatMap(Validators::getETag));
+
+            // nothing stored yet, so the page is downloaded again
+            Assert.assertTrue(DefaultDownloader.instance.download(downloadCtx).isSuccess());
+
+            downloadCtx.storeValidators(first.getValidators().get());
+            DownloadResult second = DefaultDownloader.instance.download(downloadCtx);
+            Assert.assertTrue("Second download must not be modified", second.isNotModified());
+            Assert.assertTrue("Second download has no content", second.getContent().isEmpty());
+
+            downloadCtx.cleanUpValidators();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamingToFile() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, page.toURI().toURL(), false);
+
+        DownloadResult downloadResult = DefaultDownloader.instance.streamingToFile(1024).download(downloadCtx);
+
+        Assert.assertTrue("Download result must be success", downloadResult.isSuccess());
+        Assert.assertTrue("Content must not be held in memory", downloadResult.getContent().isEmpty());
+        Assert.assertEquals(Optional.of(downloadCtx.getDownloadFile()), downloadResult.getContentFile());
+        Assert.assertEquals("<p>Ritterstraße 11 10969 Berlin</p>",
+                FileUtils.readFileToString(downloadCtx.getDownloadFile(), StandardCharsets.UTF_8));
+
+        downloadCtx.cleanUp();
+    }
+
+    @Test
+    public void testStreamingToFileTooLarge() throws IOException {
+        File page = File.createTempFile("page", ".html");
+        page.deleteOnExit();
+        FileUtils.writeStringToFile(page, "<p>Ritterstraße 11 10969 Berlin</p>", StandardCharsets.UTF_8);
+        DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, page.toURI().toURL(), false);
+
+        DownloadResult downloadResult = DefaultDownloader.instance.streamingToFile(16).download(downloadCtx);
+
+        Assert.assertEquals("Download of a page too large must be rejected",
+                DownloadResult.Status.REJECTED, downloadResult.getStatus());
+        Assert.assertFalse("A page too large must not be retried", downloadResult.isRetryable());
+        Assert.assertTrue("No file must be left behind", !downloadCtx.getDownloadFile().exists());
+        File[] parts = downloadDirectory.listFiles((dir, name) -> name.endsWith(".part"));
+        Assert.assertTrue("No part file must be left behind", parts == null || parts.length == 0);
+    }
+
+    @Test
+    public void testCompressedDownload() throws IOException {
+        byte[] page = "<p>Ritterstraße 11 10969 Berlin</p><p>Ritterstraße 11 10969 Berlin</p>".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(page);
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/impressum", exchange -> {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, gzipped.size());
+                exchange.getResponseBody().write(gzipped.toByteArray());
+            } else {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, page.length);
+                exchange.getResponseBody().write(page);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/impressum");
+            DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, url, false);
+
+            DownloadResult downloadResult = DefaultDownloader.instance.download(downloadCtx);
+
+            Assert.assertTrue("Download result must be success", downloadResult.isSuccess());
+            Assert.assertEquals(new String(page, StandardCharsets.UTF_8), downloadResult.getContent());
+            Assert.assertEquals(gzipped.size(), downloadResult.getBytesReceived());
+            Assert.assertEquals(page.length, downloadResult.getBytesDecoded());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testLatin1Download() throws IOException {
+        byte[] page = "<p>Ritterstraße 11 10969 Berlin</p>".getBytes(StandardCharsets.ISO_8859_1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/impressum", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=ISO-8859-1");
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, page.length);
+            exchange.getResponseBody().write(page);
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/impressum");
+
+            DownloadResult inMemory = DefaultDownloader.instance.download(new DefaultDownloaderCtx(downloadDirectory, url, false));
+            Assert.assertEquals("<p>Ritterstraße 11 10969 Berlin</p>", inMemory.getContent());
+
+            DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, url, false);
+            DownloadResult inFile = DefaultDownloader.instance.streamingToFile(1024).download(downloadCtx);
+            Assert.assertEquals(Optional.of(Charset.forName("windows-1252")), inFile.getCharset());
+            Assert.assertEquals("<p>Ritterstraße 11 10969 Berlin</p>",
+                    FileUtils.readFileToString(downloadCtx.getDownloadFile(), inFile.getCharset().get()));
+            downloadCtx.cleanUp();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        byte[] page = "<p>Ritterstraße 11 10969 Berlin</p>".getBytes(StandardCharsets.UTF_8);
+        Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            clients.add(exchange.getRemoteAddress());
+            if (exchange.getRequestURI().getPath().equals("/missing")) {
+                byte[] notFound = "<p>Not found</p>".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, notFound.length);
+                exchange.getResponseBody().write(notFound);
+            } else {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, page.length);
+                exchange.getResponseBody().write(page);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String host = "http://localhost:" + server.getAddress().getPort();
+            for (String path : new String[]{"/impressum", "/missing", "/kontakt", "/impressum"}) {
+                DefaultDownloaderCtx downloadCtx = new DefaultDownloaderCtx(downloadDirectory, new URL(host + path), false);
+                Assert.assertEquals(!path.equals("/missing"), DefaultDownloader.instance.download(downloadCtx).isSuccess());
+            }
+            Assert.assertEquals("All the downloads must go through the same connection " + clients, 1, clients.size());
+        } finally {
+            server.stop(0);
+        }
+    }
 
     @AfterClass
     public static void cleanUp() {
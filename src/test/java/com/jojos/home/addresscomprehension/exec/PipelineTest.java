@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.exec;
+
+import com.jojos.home.addresscomprehension.db.WriteBehindQueue;
+import com.jojos.home.addresscomprehension.download.AsyncDownloader;
+import com.jojos.home.addresscomprehension.download.DefaultDownloader;
+import com.jojos.home.addresscomprehension.download.DefaultDownloaderCtx;
+import com.jojos.home.addresscomprehension.download.DownloadResult;
+import com.jojos.home.addresscomprehension.download.TransferStats;
+import com.jojos.home.addresscomprehension.download.Validators;
+import com.jojos.home.addresscomprehension.email.Email;
+import com.jojos.home.addresscomprehension.parse.Parser;
+import com.jojos.home.addresscomprehension.parse.ParserCtx;
+import com.jojos.home.addresscomprehension.values.Address;
+import com.jojos.home.addresscomprehension.values.Company;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Test class for {@link Pipeline}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class PipelineTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Registered by its class name, finds an address of its own next to the ones of the default parser.
+     */
+    public static class BranchParser implements Parser {
+        @Override
+        public List<Address> extractAddressesFromString(String page, Company company, Optional<ParserCtx> parserCtx) {
+            return Collections.singletonList(new Address("Gubener Straße 29 10243 Berlin", LocalDateTime.now(), company));
+        }
+
+        @Override
+        public List<Address> extractAddressesFromFile(File file, Company company, Optional<ParserCtx> parserCtx) {
+            return extractAddressesFromString("", company, parserCtx);
+        }
+
+        @Override
+        public List<Address> extractAddressesFromHtml(String html, Company company, Optional<ParserCtx> parserCtx) {
+            return extractAddressesFromString(html, company, parserCtx);
+        }
+    }
+
+    @Test
+    public void testStoredAddressesAreReportedWhenAnotherWriteFails() throws Exception {
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false,
+                BranchParser.class.getName());
+        // the database can't store the addresses of the default parser, but stores the ones of the other parser
+        WriteBehindQueue writeBehindQueue = new WriteBehindQueue(null, 10, 10) {
+            @Override
+            public CompletableFuture<Boolean> submit(Collection<Address> addresses) {
+                CompletableFuture<Boolean> result = new CompletableFuture<>();
+                if (addresses.stream().anyMatch(address -> address.getValue().startsWith("Ritterstraße"))) {
+                    result.completeExceptionally(new SQLException("boom"));
+                } else {
+                    result.complete(true);
+                }
+                return result;
+            }
+        };
+        List<List<String>> dispatched = new CopyOnWriteArrayList<>();
+        Email email = new Email(new Properties()) {
+            @Override
+            public void dispatch(Collection<Address> addresses) {
+                dispatched.add(addresses.stream().map(Address::getValue).collect(Collectors.toList()));
+            }
+        };
+        AsyncDownloader downloader = new AsyncDownloader(context -> DownloadResult.success(
+                "<p>Ritterstraße 11 10969 Berlin</p>", new Validators(Optional.of("\"v1\""), Optional.empty())),
+                1, 1, 1);
+        Pipeline pipeline = new Pipeline(downloader, new Stage("parser", 1, 1), writeBehindQueue,
+                new Stage("notifier", 1, 1), email);
+        DefaultDownloaderCtx downloaderCtx = new DefaultDownloaderCtx(temporaryFolder.getRoot(), company);
+        try {
+            pipeline.submit(company, downloaderCtx).get(10, TimeUnit.SECONDS);
+        } finally {
+            pipeline.shutdown();
+            writeBehindQueue.stop(5);
+        }
+
+        List<List<String>> expected = new ArrayList<>();
+        expected.add(Collections.singletonList("Gubener Straße 29 10243 Berlin"));
+        Assert.assertEquals("The stored addresses must be reported", expected, dispatched);
+        Assert.assertFalse("The page must be processed again on the next run", downloaderCtx.loadValidators().isPresent());
+    }
+
+    @Test
+    public void testUnchangedContentCountsItsBytes() throws Exception {
+        File page = temporaryFolder.newFile("impressum.html");
+        Files.write(page.toPath(), "<p>Ritterstraße 11 10969 Berlin</p>".getBytes(StandardCharsets.UTF_8));
+        Company company = new Company(page.toURI().toURL().toString(), Optional.of("example"), false);
+        WriteBehindQueue writeBehindQueue = new WriteBehindQueue(null, 10, 10) {
+            @Override
+            public CompletableFuture<Boolean> submit(Collection<Address> addresses) {
+                return CompletableFuture.completedFuture(true);
+            }
+        };
+        Email email = new Email(new Properties()) {
+            @Override
+            public void dispatch(Collection<Address> addresses) {
+            }
+        };
+        Pipeline pipeline = new Pipeline(new AsyncDownloader(DefaultDownloader.instance, 1, 1, 1),
+                new Stage("parser", 1, 1), writeBehindQueue, new Stage("notifier", 1, 1), email);
+        DefaultDownloaderCtx downloaderCtx = new DefaultDownloaderCtx(temporaryFolder.getRoot(), company);
+        try {
+            pipeline.submit(company, downloaderCtx).get(10, TimeUnit.SECONDS);
+            TransferStats stats = pipeline.getTransferStats().get(company);
+            long bytesReceived = stats.getBytesReceived();
+            Assert.assertTrue("The first download must transfer the page", bytesReceived > 0);
+
+            // the content is the same, it's downloaded but not parsed again
+            pipeline.submit(company, downloaderCtx).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(2, stats.getDownloads());
+            Assert.assertEquals("The bytes of the unchanged page must count too", 2 * bytesReceived,
+                    stats.getBytesReceived());
+        } finally {
+            pipeline.shutdown();
+            writeBehindQueue.stop(5);
+            downloaderCtx.cleanUpValidators();
+        }
+    }
+}
@@ -13,8 +13,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
@@ -60,6 +65,88 @@ public class SchedulerTest {
         }
     }
 
+    @Test
+    public void testVirtualThreadsConcurrency() throws InterruptedException {
+        int taskCount = 50;
+        int maxConcurrency = 5;
+        CountDownLatch done = new CountDownLatch(taskCount);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<Runnable> set = new HashSet<>();
+        for (int i = 0; i < taskCount; i++) {
+            set.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        Scheduler<Runnable> scheduler = Scheduler.withVirtualThreads(Optional.empty(), (24 * 60 * 60), maxConcurrency);
+        scheduler.submit(set);
+
+        Assert.assertTrue("All tasks must run", done.await(30, TimeUnit.SECONDS));
+        scheduler.stop();
+        Assert.assertTrue("At most " + maxConcurrency + " tasks at the same time, were " + maxRunning.get(),
+                maxRunning.get() <= maxConcurrency);
+    }
+
+    @Test
+    public void testVirtualThreadsConcurrencyOfAsyncTasks() throws InterruptedException {
+        int taskCount = 20;
+        int maxConcurrency = 3;
+        CountDownLatch done = new CountDownLatch(taskCount);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ScheduledExecutorService completer = Executors.newSingleThreadScheduledExecutor();
+        Set<Runnable> set = new HashSet<>();
+        for (int i = 0; i < taskCount; i++) {
+            // start returns at once, the work is done later on a thread of its own
+            set.add((AsyncTask) () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                completer.schedule(() -> {
+                    running.decrementAndGet();
+                    done.countDown();
+                    future.complete(null);
+                }, 20, TimeUnit.MILLISECONDS);
+                return future;
+            });
+        }
+        Scheduler<Runnable> scheduler = Scheduler.withVirtualThreads(Optional.empty(), (24 * 60 * 60), maxConcurrency);
+        scheduler.submit(set);
+
+        Assert.assertTrue("All tasks must run", done.await(30, TimeUnit.SECONDS));
+        scheduler.stop();
+        completer.shutdown();
+        Assert.assertTrue("At most " + maxConcurrency + " tasks at the same time, were " + maxRunning.get(),
+                maxRunning.get() <= maxConcurrency);
+    }
+
+    @Test
+    public void testAsyncTaskRunSkippedUntilDone() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Set<Runnable> set = new HashSet<>();
+        set.add((AsyncTask) () -> {
+            runs.incrementAndGet();
+            return future;
+        });
+        // run every second, the first run holds until its future completes
+        Scheduler<Runnable> scheduler = Scheduler.withVirtualThreads(Optional.empty(), 1, 1);
+        scheduler.submit(set);
+
+        Thread.sleep(2500);
+        Assert.assertEquals("Runs must be skipped while the previous one is not done", 1, runs.get());
+        future.complete(null);
+        Thread.sleep(1500);
+        scheduler.stop();
+        Assert.assertTrue("The task must run again once done, ran " + runs.get(), runs.get() > 1);
+    }
+
     @Test
     public void testPeriod() {
         Set<Runnable> set = new HashSet<>();
@@ -83,4 +170,44 @@ public class SchedulerTest {
         long expected = sleepPeriod / period + 1;   // +1 because we count one more starting now
         Assert.assertEquals(expected, numbers.size());
     }
+
+    @Test
+    public void testSpreadOffsets() {
+        long window = 60_000L;
+        int[] buckets = new int[6];
+        for (int i = 0; i < 6000; i++) {
+            String key = "http://www.company" + i + ".de/impressum";
+            long offset = Scheduler.offsetMillis(key, window);
+            Assert.assertTrue(offset >= 0 && offset < window);
+            Assert.assertEquals("The same key must get the same offset", offset, Scheduler.offsetMillis(key, window));
+            buckets[(int) (offset / 10_000)]++;
+        }
+        // similar keys should still spread evenly across the window
+        for (int bucket : buckets) {
+            Assert.assertTrue("Uneven spread " + bucket, bucket > 800 && bucket < 1200);
+        }
+    }
+
+    @Test
+    public void testSpreadOver() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        List<Long> startTimes = new CopyOnWriteArrayList<>();
+        Set<Runnable> set = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            set.add(() -> {
+                startTimes.add(System.nanoTime());
+                done.countDown();
+            });
+        }
+        long start = System.nanoTime();
+        Scheduler<Runnable> scheduler = new Scheduler<Runnable>(Optional.empty(), (24 * 60 * 60), 2)
+                .spreadOver(2, 0, Object::toString);
+        scheduler.submit(set);
+
+        Assert.assertTrue("All tasks must run within the window", done.await(5, TimeUnit.SECONDS));
+        scheduler.stop();
+        for (long startTime : startTimes) {
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(startTime - start) < 2_500);
+        }
+    }
 }
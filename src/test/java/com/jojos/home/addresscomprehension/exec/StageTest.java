@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.exec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test class for {@link Stage}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class StageTest {
+
+    @Test
+    public void testHandingOverBlocksWhileTheQueueIsFull() throws InterruptedException {
+        Stage stage = new Stage("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean handedOver = new AtomicBoolean();
+        try {
+            // one item running, one waiting in the queue, the third has to wait for room
+            stage.execute(() -> {
+                started.countDown();
+                await(release);
+            });
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            stage.execute(() -> { });
+            Thread producer = new Thread(() -> {
+                stage.execute(() -> { });
+                handedOver.set(true);
+            });
+            producer.start();
+            producer.join(200);
+            Assert.assertFalse("The producer should block while the queue is full", handedOver.get());
+
+            release.countDown();
+            producer.join(5_000);
+            Assert.assertTrue(handedOver.get());
+        } finally {
+            release.countDown();
+            stage.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
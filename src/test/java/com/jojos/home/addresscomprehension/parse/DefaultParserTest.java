@@ -18,8 +18,12 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Test class for {@link Parser}'s default implementation {@link DefaultParser}.
@@ -61,6 +65,140 @@ public class DefaultParserTest {
         Assert.assertEquals("Ritterstraße 11  10969 Berlin, Deutschland", addresses.get(0).getValue());
     }
 
+    @Test
+    public void testExtractHtmlIdealo() throws IOException {
+        Parser parser = new DefaultParser();
+
+        Company company = new Company("http://www.idealo.de/preisvergleich/AGB.html", Optional.of("idealo"), false);
+
+        String html = "<html><body><div>Hauptstraße 1 Berlin</div>" +
+                "<p>Ritterstraße 11<br>\n10969 Berlin, Deutschland</p></body></html>";
+        List<Address> addresses = parser.extractAddressesFromHtml(html, company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Ritterstraße 11 10969 Berlin, Deutschland", addresses.get(0).getValue());
+    }
+
+    @Test
+    public void testExtractOneAddressFromOneStr() throws IOException {
+        Parser parser = new DefaultParser();
+
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        // only the last street up to the last city, as always
+        String page = "Hauptsitz: Ritterstraße 11 10969 Berlin, Deutschland. " +
+                "Lager: Gubener Straße 29 10243 Berlin. Kontakt: info@example.com";
+        List<Address> addresses = parser.extractAddressesFromString(page, company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Gubener Straße 29 10243 Berlin", addresses.get(0).getValue());
+    }
+
+    /**
+     * The addresses found must be the ones the former pattern found, stored addresses must not change.
+     */
+    @Test
+    public void testSameAddressesAsTheFormerPattern() throws IOException {
+        // the former pattern, except for the city that has to be a whole word
+        Pattern former = Pattern.compile(
+                ".*(\\b\\p{L}+\\s?(?:[Ss]traße|[Ss]trasse)\\b.*(?:Deutschland|berlin)\\b)(.*)",
+                Pattern.CASE_INSENSITIVE);
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < 1000) {
+            filler.append(" lorem ipsum dolor sit amet");
+        }
+        List<String> texts = Arrays.asList(
+                "Ritterstraße 11 10969 Berlin, Deutschland",
+                "Ritterstraße 11  10969 Berlin, Deutschland",
+                "Hauptsitz: Ritterstraße 11 10969 Berlin, Deutschland. Lager: Gubener Straße 29 10243 Berlin. Kontakt",
+                "Hauptstraße 1, 10115 Berlin. Filiale: Berliner Straße 5, 14467 Potsdam, Deutschland",
+                "Musterstraße 1 Berlin Berliner Straße 5 Berlin",
+                "Ritterstraße 11 10969 Berlin," + filler + " Gubener Straße 29 10243 Berlin",
+                "Ritterstraße 11 10969 Berlin," + filler + " Gubener Straße 29",
+                "Ritter Strasse 11 10969 BERLIN Straßenbahn",
+                "3Hauptstraße 1 Berlin",
+                "Berlin" + filler + "Musterstraße 1",
+                "Straße 1 Berlin");
+
+        DefaultParser parser = new DefaultParser();
+        for (String text : texts) {
+            Matcher matcher = former.matcher(text);
+            List<String> expected = matcher.matches() ? Collections.singletonList(matcher.group(1))
+                    : Collections.<String>emptyList();
+            Assert.assertEquals(text, expected, parser.findAddresses(text));
+        }
+    }
+
+    @Test
+    public void testExtractStreetStartingWithTheCity() throws IOException {
+        Parser parser = new DefaultParser();
+
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        String page = "Hauptstraße 1, 10115 Berlin. Filiale: Berliner Straße 5, 14467 Potsdam, Deutschland";
+        List<Address> addresses = parser.extractAddressesFromString(page, company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Berliner Straße 5, 14467 Potsdam, Deutschland", addresses.get(0).getValue());
+
+        addresses = parser.extractAddressesFromString("Musterstraße 1 Berlin Berliner Straße 5",
+                company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Musterstraße 1 Berlin", addresses.get(0).getValue());
+    }
+
+    @Test
+    public void testExtractAddressAtTheEdgesOfLongText() throws IOException {
+        Parser parser = new DefaultParser();
+
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < 1000) {
+            filler.append(" lorem ipsum dolor sit amet");
+        }
+        String page = "Ritterstraße 11 10969 Berlin," + filler + " Gubener Straße 29";
+        List<Address> addresses = parser.extractAddressesFromString(page, company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Ritterstraße 11 10969 Berlin", addresses.get(0).getValue());
+
+        // however far the city is from the street
+        addresses = parser.extractAddressesFromString("Gubener Straße 29" + filler + " 10243 Berlin",
+                company, Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Gubener Straße 29" + filler + " 10243 Berlin", addresses.get(0).getValue());
+
+        Assert.assertTrue(parser.extractAddressesFromString("Berlin" + filler + "Musterstraße 1",
+                company, Optional.<ParserCtx>empty()).isEmpty());
+    }
+
+    /**
+     * Regression benchmark: a large page full of near misses must be parsed in linear time.
+     * The former pattern backtracked over the whole page for every near miss and never finished on such input.
+     */
+    @Test(timeout = 10_000)
+    public void testExtractFromLargeSyntheticPage() throws IOException {
+        Parser parser = new DefaultParser();
+
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        int addressCount = 100;
+        StringBuilder page = new StringBuilder();
+        for (int i = 1; i <= addressCount; i++) {
+            for (int j = 0; j < 100; j++) {
+                // near misses, a street without a city and filler text
+                page.append("<p>Musterstraße ").append(j).append(" ohne Ort, lorem ipsum dolor sit amet</p>\n");
+            }
+            page.append("<p>Beispielstraße ").append(i).append(" 10115 Berlin</p>\n");
+        }
+
+        long start = System.nanoTime();
+        List<Address> addresses = parser.extractAddressesFromHtml(page.toString(), company, Optional.<ParserCtx>empty());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Assert.assertEquals(addressCount, addresses.size());
+        Assert.assertEquals("Beispielstraße 1 10115 Berlin", addresses.get(0).getValue());
+        Assert.assertEquals("Beispielstraße " + addressCount + " 10115 Berlin", addresses.get(addressCount - 1).getValue());
+        Assert.assertTrue("Parsing " + page.length() + " characters took " + elapsedMillis + "ms", elapsedMillis < 5_000);
+    }
+
     @Test
     public void testExtractFileIdealo() throws IOException {
         String companyUrl = "http://www.idealo.de/preisvergleich/AGB.html";
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test class for {@link KeywordAutomaton}.
+ *
+ * Created by karanikasg@gmail.com.
+ */
+public class KeywordAutomatonTest {
+
+    private final KeywordAutomaton automaton = new KeywordAutomaton("straße", "strasse", "deutschland", "berlin");
+
+    @Test
+    public void testFindsAllKeywordsInOrder() {
+        List<String> hits = scan("Ritterstraße 11 10969 Berlin, Deutschland");
+        Assert.assertEquals(Arrays.asList("0:6-12", "3:22-28", "2:30-41"), hits);
+    }
+
+    @Test
+    public void testIgnoresCase() {
+        List<String> hits = scan("GUBENER STRASSE 29, 10243 BERLIN und Müllerstraẞe");
+        Assert.assertEquals(Arrays.asList("1:8-15", "3:26-32", "0:43-49"), hits);
+    }
+
+    @Test
+    public void testOverlappingKeywords() {
+        KeywordAutomaton overlapping = new KeywordAutomaton("strasse", "asse", "se");
+        List<String> hits = new ArrayList<>();
+        overlapping.scan("strasse", (keyword, start, end) -> hits.add(keyword + ":" + start + "-" + end));
+        Assert.assertEquals(Arrays.asList("0:0-7", "1:3-7", "2:5-7"), hits);
+    }
+
+    @Test
+    public void testNoKeywords() {
+        Assert.assertTrue(scan("Impressum, Kontakt: info@example.com").isEmpty());
+    }
+
+    private List<String> scan(String text) {
+        List<String> hits = new ArrayList<>();
+        automaton.scan(text, (keyword, start, end) -> hits.add(keyword + ":" + start + "-" + end));
+        return hits;
+    }
+}
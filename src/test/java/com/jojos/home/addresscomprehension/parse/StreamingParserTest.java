@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016. All Rights Reserved
+ */
+
+package com.jojos.home.addresscomprehension.parse;
+
+import com.jojos.home.addresscomprehension.values.Address;
+import com.jojos.home.addresscomprehension.values.Company;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Test class for {@link StreamingParser}.
+ * <p>
+ * Created by karanikasg@gmail.com.
+ */
+public class StreamingParserTest {
+
+    private static final String PAGE = "<!DOCTYPE html>\n" +
+            "<html><head><title>Impressum</title>\n" +
+            "<style>p { color: red; } /* Fakestraße 1 Berlin */</style>\n" +
+            "<script>var s = '<p>Scriptstraße 1 10115 Berlin</p>';</script>\n" +
+            "</head><body>\n" +
+            "<!-- <p>Kommentarstraße 2 10115 Berlin</p> -->\n" +
+            "<div class=\"header\">Hauptstraße 3 10115 Berlin ist kein Absatz</div>\n" +
+            "<p class='address'>Ritterstra&szlig;e 11<br/>\n    10969 Berlin, Deutschland</p>\n" +
+            "<p>Kontakt: <a href=\"mailto:info@example.com\">info@example.com</a>\n" +
+            "<div><p>Gubener <b>Stra&#223;e</b> 29 10243 Berlin</div>\n" +
+            "<p>Gr&uuml;nberger Straße 16 10243 berlin &amp; mehr\n" +
+            "</body></html>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testExtractFileLikeDefaultParser() throws IOException {
+        File file = temporaryFolder.newFile("impressum.html");
+        Files.write(file.toPath(), PAGE.getBytes(StandardCharsets.UTF_8));
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        List<Address> streamed = new StreamingParser().extractAddressesFromFile(file, company, Optional.<ParserCtx>empty());
+        List<Address> parsed = new DefaultParser().extractAddressesFromFile(file, company, Optional.<ParserCtx>empty());
+
+        List<String> expected = Arrays.asList(
+                "Ritterstraße 11 10969 Berlin, Deutschland",
+                "Gubener Straße 29 10243 Berlin",
+                "Grünberger Straße 16 10243 berlin");
+        Assert.assertEquals(expected, streamed.stream().map(Address::getValue).collect(Collectors.toList()));
+        Assert.assertEquals(parsed.stream().map(Address::getValue).collect(Collectors.toList()),
+                streamed.stream().map(Address::getValue).collect(Collectors.toList()));
+        Assert.assertEquals(3, streamed.get(2).getOrdinal());
+        Assert.assertEquals(3, streamed.get(0).getCompany().getAddressCount());
+    }
+
+    @Test
+    public void testExtractMislabelledFile() throws IOException {
+        File file = temporaryFolder.newFile("latin1.html");
+        // latin-1 bytes decoded as UTF-8, the default without a context
+        Files.write(file.toPath(), "<p>Grünberger Straße 16 10243 Berlin</p><p>Ritterstraße 11 10969 Berlin</p>"
+                .getBytes(StandardCharsets.ISO_8859_1));
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        List<Address> streamed = new StreamingParser().extractAddressesFromFile(file, company, Optional.<ParserCtx>empty());
+        List<Address> parsed = new DefaultParser().extractAddressesFromFile(file, company, Optional.<ParserCtx>empty());
+
+        Assert.assertEquals(parsed.stream().map(Address::getValue).collect(Collectors.toList()),
+                streamed.stream().map(Address::getValue).collect(Collectors.toList()));
+
+        List<Address> latin1 = new StreamingParser().extractAddressesFromFile(file, company,
+                Optional.of(new DefaultParserCtx(StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(Arrays.asList("Grünberger Straße 16 10243 Berlin", "Ritterstraße 11 10969 Berlin"),
+                latin1.stream().map(Address::getValue).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testExtractStringLikeDefaultParser() throws IOException {
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+        List<String> pages = Arrays.asList(
+                "Ritterstraße 11 10969 Berlin, Deutschland",
+                "Ritterstraße 11<br>\n10969 Berlin, Deutschland",
+                "Hauptsitz: Ritterstraße 11 10969 Berlin. Lager: Gubener Straße 29 10243 Berlin",
+                "<p>Ritterstraße 11 10969 Berlin</p> a < b Gubener Straße 29 10243 Berlin",
+                "Ritterstra&szlig;e 11 10969 Berlin",
+                "kein Absatz");
+
+        for (String page : pages) {
+            List<Address> streamed = new StreamingParser().extractAddressesFromString(page, company,
+                    Optional.<ParserCtx>empty());
+            List<Address> parsed = new DefaultParser().extractAddressesFromString(page, company,
+                    Optional.<ParserCtx>empty());
+            Assert.assertEquals(page, parsed.stream().map(Address::getValue).collect(Collectors.toList()),
+                    streamed.stream().map(Address::getValue).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testLegacyCharacterReferencesLikeJsoup() throws IOException {
+        // old pages leave out the closing ';' of the Latin-1 references
+        String html = "<p>Gr&uuml;nberger Stra&szlig;e 16 10243 Berlin &amp mehr</p>\n" +
+                "<p>M&Uuml&szlig;LLER &copy 2016, Tel.&nbsp030 1234</p>\n" +
+                "<p>Stra&szlige &aumlx &unknown &lt;b&gt &auml";
+        List<String> paragraphs = new ArrayList<>();
+        new ParagraphTokenizer(paragraphs::add).tokenize(new StringReader(html));
+
+        Assert.assertEquals(Jsoup.parse(html).select("p").stream().map(Element::text).collect(Collectors.toList()),
+                paragraphs);
+        Assert.assertEquals(Arrays.asList(
+                "Grünberger Straße 16 10243 Berlin & mehr",
+                "MÜßLLER © 2016, Tel.&nbsp030 1234",
+                "Stra&szlige &aumlx &unknown <b> ä"), paragraphs);
+    }
+
+    @Test
+    public void testParagraphTextIsBounded() throws IOException {
+        StringBuilder page = new StringBuilder("<p>");
+        while (page.length() < 2 * ParagraphTokenizer.MAX_PARAGRAPH_LENGTH) {
+            page.append("lorem ipsum ");
+        }
+        page.append("Beispielstraße 1 10115 Berlin</p><p>Musterstraße 2 10115 Berlin</p>");
+        Company company = new Company("http://www.example.com/impressum", Optional.of("example"), false);
+
+        List<Address> addresses = new StreamingParser().extractAddressesFromHtml(page.toString(), company,
+                Optional.<ParserCtx>empty());
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals("Musterstraße 2 10115 Berlin", addresses.get(0).getValue());
+    }
+}